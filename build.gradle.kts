@@ -18,12 +18,22 @@ android {
 
     buildTypes {
         release {
-            isMinifyEnabled = false
+            // R8 で使われないコード (地図・カメラなどのサンプル画面から参照されるライブラリを含む) と
+            // リソースを削る。名前は変えない (proguard-rules.pro)
+            isMinifyEnabled = true
+            isShrinkResources = true
             proguardFiles(
                 getDefaultProguardFile("proguard-android-optimize.txt"),
                 "proguard-rules.pro"
             )
         }
+        // macrobenchmark の計測対象 (release と同じ最適化 + profileable、データ投入用の NoteSeedReceiver 入り)
+        create("perf") {
+            initWith(getByName("release"))
+            signingConfig = signingConfigs.getByName("debug")
+            matchingFallbacks += listOf("release")
+            isDebuggable = false
+        }
     }
     compileOptions {
         sourceCompatibility = JavaVersion.VERSION_1_8
@@ -42,8 +52,63 @@ dependencies {
     implementation(libs.constraintlayout)
     implementation(libs.navigation.fragment)
     implementation(libs.navigation.ui)
-    implementation(libs.junit)
-    implementation(libs.ext.junit)
-    implementation(libs.espresso.core)
     implementation(libs.play.services.maps)
-}
\ No newline at end of file
+    // src/main/baseline-prof.txt をインストール時 (ストア外の配布を含む) にコンパイルさせる
+    implementation("androidx.profileinstaller:profileinstaller:1.3.1")
+    testImplementation(libs.junit)
+    androidTestImplementation(libs.ext.junit)
+    androidTestImplementation(libs.espresso.core)
+}
+
+// ===== JVM 上のマイクロベンチマーク (src/benchmark/java, JMH) =====
+// ./gradlew benchmark [-Pbenchmark.include=NoteFormat]
+// 結果は build/reports/benchmark/results.json (JMH の JSON 形式)
+val benchmarkClasspath by configurations.creating
+val benchmarkAnnotationProcessor by configurations.creating
+
+dependencies {
+    benchmarkClasspath("org.openjdk.jmh:jmh-core:1.37")
+    benchmarkAnnotationProcessor("org.openjdk.jmh:jmh-generator-annprocess:1.37")
+}
+
+// Android に依存しないクラスだけをアプリ側から取り込む (NoteSeeder は perf ビルド専用のソース)
+val benchmarkedSources = listOf("NoteItem", "LegacyNoteReader", "NoteJournal")
+    .map { "src/main/java/es/exsample/$it.java" } + "src/perf/java/es/exsample/NoteSeeder.java"
+
+val compileBenchmarkJava by tasks.registering(JavaCompile::class) {
+    source(fileTree("src/benchmark/java"), files(benchmarkedSources))
+    classpath = benchmarkClasspath
+    options.annotationProcessorPath = benchmarkAnnotationProcessor
+    options.encoding = "UTF-8"
+    options.release.set(8)
+    destinationDirectory.set(layout.buildDirectory.dir("benchmark/classes"))
+}
+
+tasks.register<JavaExec>("benchmark") {
+    group = "verification"
+    description = "ノートの保存形式と Base64 のマイクロベンチマークを実行する"
+    dependsOn(compileBenchmarkJava)
+    val results = layout.buildDirectory.file("reports/benchmark/results.json")
+    classpath = files(compileBenchmarkJava.map { it.destinationDirectory }) + benchmarkClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    args("-rf", "json", "-rff", results.get().asFile.absolutePath)
+    (project.findProperty("benchmark.include") as String?)?.let { args(it) }
+    doFirst { results.get().asFile.parentFile.mkdirs() }
+}
+
+// 合成ノートを filesDir と同じ構成で書き出す (NoteSeeder)
+// ./gradlew seedNotes [-Pseed.subject=LA] [-Pseed.count=300] [-Pseed.imageSize=1080]
+// 出力 (build/seed/files) をアプリの filesDir に置くと次回起動時に反映される
+tasks.register<JavaExec>("seedNotes") {
+    group = "verification"
+    description = "ベンチマーク用の合成ノートを build/seed/files に書き出す"
+    dependsOn(compileBenchmarkJava)
+    classpath = files(compileBenchmarkJava.map { it.destinationDirectory })
+    mainClass.set("es.exsample.NoteSeeder")
+    args(
+        layout.buildDirectory.dir("seed/files").get().asFile.absolutePath,
+        project.findProperty("seed.subject") ?: "LA",
+        project.findProperty("seed.count") ?: "300",
+        project.findProperty("seed.imageSize") ?: "1080"
+    )
+}
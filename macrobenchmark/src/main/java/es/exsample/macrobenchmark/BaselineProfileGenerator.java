@@ -0,0 +1,57 @@
+package es.exsample.macrobenchmark;
+
+import androidx.benchmark.macro.junit4.BaselineProfileRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.uiautomator.By;
+import androidx.test.uiautomator.Direction;
+import androidx.test.uiautomator.UiDevice;
+import androidx.test.uiautomator.UiObject2;
+import androidx.test.uiautomator.Until;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import kotlin.Unit;
+
+/**
+ * 起動経路 (ホーム -> 線形代数の一覧 -> 拡大表示) の baseline profile を作る
+ *  - root 化したエミュレータ (ATD イメージなど) で実行する
+ *  - 出力 (build/outputs/connected_android_test_additional_output/ の *-baseline-prof.txt) で
+ *    アプリの src/main/baseline-prof.txt を置き換える
+ */
+@RunWith(AndroidJUnit4.class)
+public class BaselineProfileGenerator {
+
+    private static final long TIMEOUT_MS = 10_000;
+
+    @Rule
+    public BaselineProfileRule rule = new BaselineProfileRule();
+
+    @BeforeClass
+    public static void seed() {
+        NoteSeeding.reseed(NoteSeeding.SUBJECT_LA, NoteSeeding.NOTE_COUNT);
+    }
+
+    @Test
+    public void startupToExpansion() {
+        rule.collect(NoteSeeding.PACKAGE, 15, 3, null, true, false, name -> true, scope -> {
+            scope.pressHome();
+            scope.startActivityAndWait();
+            UiDevice device = scope.getDevice();
+
+            UiObject2 list = NoteSeeding.openNoteList(scope);
+            list.setGestureMargin(device.getDisplayWidth() / 5);
+            list.fling(Direction.DOWN);
+            device.waitForIdle();
+
+            // 拡大表示を開いて戻る
+            device.findObject(By.res(NoteSeeding.PACKAGE, "note_title")).click();
+            device.wait(Until.hasObject(By.res(NoteSeeding.PACKAGE, "img_expanded")), TIMEOUT_MS);
+            device.pressBack();
+            NoteSeeding.waitForRows(device);
+            return Unit.INSTANCE;
+        });
+    }
+}
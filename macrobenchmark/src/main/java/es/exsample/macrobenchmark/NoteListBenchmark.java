@@ -0,0 +1,94 @@
+package es.exsample.macrobenchmark;
+
+import androidx.benchmark.macro.CompilationMode;
+import androidx.benchmark.macro.FrameTimingMetric;
+import androidx.benchmark.macro.TraceSectionMetric;
+import androidx.benchmark.macro.junit4.MacrobenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.uiautomator.By;
+import androidx.test.uiautomator.Direction;
+import androidx.test.uiautomator.UiDevice;
+import androidx.test.uiautomator.UiObject2;
+import androidx.test.uiautomator.Until;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import kotlin.Unit;
+
+/**
+ * 線形代数の一覧 (画像つきのノート NoteSeeding.NOTE_COUNT 件)
+ *  - scroll : 一覧を何度かフリングしたときのフレーム時間 (ジャンク)
+ *  - filterSwitch : 検索用 Spinner でタイトルを切り替えてから一覧に反映されるまで (NoteList.filter 区間) とフレーム時間
+ */
+@RunWith(AndroidJUnit4.class)
+public class NoteListBenchmark {
+
+    private static final int ITERATIONS = 5;
+    private static final int FLINGS = 3;
+    // 検索用 Spinner の項目 (R.array.linear_algebra_menu と先頭の「すべて」)
+    private static final String[] FILTERS = {"行列", "線形空間", "ジョルダン標準形", "すべて"};
+
+    @Rule
+    public MacrobenchmarkRule rule = new MacrobenchmarkRule();
+
+    @BeforeClass
+    public static void seed() {
+        NoteSeeding.reseed(NoteSeeding.SUBJECT_LA, NoteSeeding.NOTE_COUNT);
+    }
+
+    @Test
+    public void scroll() {
+        rule.measureRepeated(NoteSeeding.PACKAGE,
+                Collections.singletonList(new FrameTimingMetric()),
+                CompilationMode.DEFAULT, null, ITERATIONS,
+                scope -> {
+                    // 前回の一覧画面が残らないよう毎回プロセスを終わらせてホーム画面から開く
+                    scope.killProcess();
+                    scope.startActivityAndWait();
+                    NoteSeeding.openNoteList(scope);
+                    return Unit.INSTANCE;
+                },
+                scope -> {
+                    UiDevice device = scope.getDevice();
+                    UiObject2 list = NoteSeeding.waitForRows(device);
+                    // 端からのジェスチャー (戻る操作) にならないよう余白をとる
+                    list.setGestureMargin(device.getDisplayWidth() / 5);
+                    for (int i = 0; i < FLINGS; i++) {
+                        list.fling(Direction.DOWN);
+                    }
+                    device.waitForIdle();
+                    return Unit.INSTANCE;
+                });
+    }
+
+    @Test
+    public void filterSwitch() {
+        rule.measureRepeated(NoteSeeding.PACKAGE,
+                Arrays.asList(new TraceSectionMetric(NoteSeeding.SECTION_FILTER, TraceSectionMetric.Mode.Sum),
+                        new FrameTimingMetric()),
+                CompilationMode.DEFAULT, null, ITERATIONS,
+                scope -> {
+                    // 前回の一覧画面が残らないよう毎回プロセスを終わらせてホーム画面から開く
+                    scope.killProcess();
+                    scope.startActivityAndWait();
+                    NoteSeeding.openNoteList(scope);
+                    return Unit.INSTANCE;
+                },
+                scope -> {
+                    UiDevice device = scope.getDevice();
+                    for (String title : FILTERS) {
+                        device.findObject(By.res(NoteSeeding.PACKAGE, "search_spinner")).click();
+                        // ダイアログの項目 (一覧の行のタイトルと区別するため android:id/text1 で探す)
+                        device.wait(Until.findObject(By.res("android", "text1").text(title)), 5_000).click();
+                        device.waitForIdle();
+                    }
+                    return Unit.INSTANCE;
+                });
+    }
+}
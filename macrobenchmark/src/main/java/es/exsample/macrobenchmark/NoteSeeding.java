@@ -0,0 +1,66 @@
+package es.exsample.macrobenchmark;
+
+import androidx.benchmark.macro.MacrobenchmarkScope;
+import androidx.test.platform.app.InstrumentationRegistry;
+import androidx.test.uiautomator.By;
+import androidx.test.uiautomator.UiDevice;
+import androidx.test.uiautomator.UiObject2;
+import androidx.test.uiautomator.Until;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * 計測の準備 (データの投入と一覧画面までの操作)
+ *  - データはアプリ (perf ビルド) の NoteSeedReceiver に合成ノートを作らせる
+ *  - 件数・画像の大きさは全ベンチマークで共通 (結果を比べられるように)
+ */
+final class NoteSeeding {
+
+    static final String PACKAGE = "es.exsample";
+    static final String SUBJECT_LA = "LA";
+    static final int NOTE_COUNT = 200;
+    static final int IMAGE_SIZE = 720;
+
+    // アプリ側の NoteListTrace と同じ区間名
+    static final String SECTION_FIRST_ROW = "NoteList.firstRow";
+    static final String SECTION_FILTER = "NoteList.filter";
+
+    private static final long TIMEOUT_MS = 10_000;
+
+    private NoteSeeding() {
+    }
+
+    /** アプリのデータを消して subject に count 件のノートを入れる (保存し終わるまで待つ) */
+    static void reseed(String subject, int count) {
+        UiDevice device = UiDevice.getInstance(InstrumentationRegistry.getInstrumentation());
+        try {
+            device.executeShellCommand("pm clear " + PACKAGE);
+            // pm clear で停止状態になるので FLAG_INCLUDE_STOPPED_PACKAGES を付ける
+            String out = device.executeShellCommand("am broadcast -f 0x20 -n " + PACKAGE + "/.NoteSeedReceiver"
+                    + " --es subject " + subject + " --ei count " + count + " --ei imageSize " + IMAGE_SIZE);
+            if (!out.contains("result=" + count)) {
+                throw new IllegalStateException("seed failed: " + out);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** ホーム画面 (FukusyuKun) から線形代数の一覧を開き、最初の行が出るまで待つ */
+    static UiObject2 openNoteList(MacrobenchmarkScope scope) {
+        UiDevice device = scope.getDevice();
+        device.wait(Until.findObject(By.res(PACKAGE, "btn_linear_algebra")), TIMEOUT_MS).click();
+        return waitForRows(device);
+    }
+
+    /** 一覧 (dynamic_table_container) に行が出るまで待って一覧を返す */
+    static UiObject2 waitForRows(UiDevice device) {
+        UiObject2 list = device.wait(Until.findObject(By.res(PACKAGE, "dynamic_table_container")
+                .hasDescendant(By.res(PACKAGE, "note_title"))), TIMEOUT_MS);
+        if (list == null) {
+            throw new IllegalStateException("note list did not show any rows");
+        }
+        return list;
+    }
+}
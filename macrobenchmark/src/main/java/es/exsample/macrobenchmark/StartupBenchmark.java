@@ -0,0 +1,105 @@
+package es.exsample.macrobenchmark;
+
+import androidx.benchmark.macro.BaselineProfileMode;
+import androidx.benchmark.macro.CompilationMode;
+import androidx.benchmark.macro.StartupMode;
+import androidx.benchmark.macro.StartupTimingMetric;
+import androidx.benchmark.macro.TraceSectionMetric;
+import androidx.benchmark.macro.junit4.MacrobenchmarkRule;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import kotlin.Unit;
+
+/**
+ * 起動時間
+ *  - coldStartup / warmStartup : ホーム画面 (FukusyuKun) の表示まで
+ *  - timeToFirstRow : コールドスタートから線形代数の一覧に最初の行が出るまで (NoteList.firstRow 区間)
+ *  - *WithoutProfile / *WithBaselineProfile : 事前コンパイルなし / baseline profile だけで
+ *    コンパイルした場合 (baseline profile の効果を比べる。DEFAULT はインストール時の状態のまま)
+ */
+@RunWith(AndroidJUnit4.class)
+public class StartupBenchmark {
+
+    private static final int ITERATIONS = 10;
+
+    @Rule
+    public MacrobenchmarkRule rule = new MacrobenchmarkRule();
+
+    @BeforeClass
+    public static void seed() {
+        NoteSeeding.reseed(NoteSeeding.SUBJECT_LA, NoteSeeding.NOTE_COUNT);
+    }
+
+    @Test
+    public void coldStartup() {
+        startup(StartupMode.COLD, CompilationMode.DEFAULT);
+    }
+
+    @Test
+    public void coldStartupWithoutProfile() {
+        startup(StartupMode.COLD, new CompilationMode.None());
+    }
+
+    @Test
+    public void coldStartupWithBaselineProfile() {
+        startup(StartupMode.COLD, new CompilationMode.Partial(BaselineProfileMode.Require, 0));
+    }
+
+    @Test
+    public void warmStartup() {
+        startup(StartupMode.WARM, CompilationMode.DEFAULT);
+    }
+
+    @Test
+    public void timeToFirstRow() {
+        timeToFirstRow(CompilationMode.DEFAULT);
+    }
+
+    @Test
+    public void timeToFirstRowWithoutProfile() {
+        timeToFirstRow(new CompilationMode.None());
+    }
+
+    @Test
+    public void timeToFirstRowWithBaselineProfile() {
+        timeToFirstRow(new CompilationMode.Partial(BaselineProfileMode.Require, 0));
+    }
+
+    private void timeToFirstRow(CompilationMode compilation) {
+        rule.measureRepeated(NoteSeeding.PACKAGE,
+                Arrays.asList(new StartupTimingMetric(),
+                        new TraceSectionMetric(NoteSeeding.SECTION_FIRST_ROW, TraceSectionMetric.Mode.First)),
+                compilation, StartupMode.COLD, ITERATIONS,
+                scope -> {
+                    scope.pressHome();
+                    return Unit.INSTANCE;
+                },
+                scope -> {
+                    scope.startActivityAndWait();
+                    NoteSeeding.openNoteList(scope);
+                    return Unit.INSTANCE;
+                });
+    }
+
+    private void startup(StartupMode mode, CompilationMode compilation) {
+        rule.measureRepeated(NoteSeeding.PACKAGE,
+                Collections.singletonList(new StartupTimingMetric()),
+                compilation, mode, ITERATIONS,
+                scope -> {
+                    scope.pressHome();
+                    return Unit.INSTANCE;
+                },
+                scope -> {
+                    scope.startActivityAndWait();
+                    return Unit.INSTANCE;
+                });
+    }
+}
@@ -18,4 +18,15 @@
 
 # If you keep the line number information, uncomment this to
 # hide the original source file name.
-#-renamesourcefileattribute SourceFile
\ No newline at end of file
+#-renamesourcefileattribute SourceFile
+# ===== ふくしゅう君 =====
+# 名前は変えない (baseline-prof.txt のクラス名・メソッド名をそのまま使えるように。
+# スタックトレースもそのまま読める)。使われないコードの削除と最適化は行う
+-dontobfuscate
+-keepattributes SourceFile,LineNumberTable
+
+# 画面・サービス (AndroidManifest から名前で参照される)。aapt の生成するルールでも残るが明示しておく
+-keep public class es.exsample.FukusyuKunApp { public <init>(); }
+-keep public class es.exsample.FukusyuKun { public <init>(); }
+-keep public class es.exsample.*Activity { public <init>(); }
+-keep public class es.exsample.NoteArchiveService { public <init>(); }
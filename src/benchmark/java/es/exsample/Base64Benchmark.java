@@ -0,0 +1,65 @@
+package es.exsample;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 画像1枚分の Base64 の符号化・復号
+ *  - encode / decode : 旧形式の保存・表示で毎回行っていた処理 (android.util.Base64.DEFAULT 相当)
+ *  - streamingDecode : LegacyNoteReader の逐次復号 (移行時。1枚分の文字列を作らない)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Base64Benchmark {
+
+    @Param({"4096", "65536", "1048576"})
+    public int imageBytes;
+
+    private byte[] image;
+    private String encoded;
+    private String record;
+
+    @Setup
+    public void setUp() {
+        image = BenchmarkData.image(1, imageBytes);
+        encoded = BenchmarkData.LEGACY_BASE64.encodeToString(image);
+        record = encoded + "###行列###本文@@@";
+    }
+
+    @Benchmark
+    public String encode() {
+        return BenchmarkData.LEGACY_BASE64.encodeToString(image);
+    }
+
+    @Benchmark
+    public byte[] decode() {
+        return Base64.getMimeDecoder().decode(encoded);
+    }
+
+    @Benchmark
+    public long streamingDecode() throws IOException {
+        BenchmarkData.CountingSink sink = new BenchmarkData.CountingSink();
+        try (LegacyNoteReader reader = new LegacyNoteReader(new StringReader(record), sink)) {
+            reader.next(NoteItem::new);
+        }
+        return sink.bytes;
+    }
+}
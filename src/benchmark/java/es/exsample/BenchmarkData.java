@@ -0,0 +1,99 @@
+package es.exsample;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * ベンチマーク用の合成データ
+ *  - 乱数の種は固定 (毎回同じデータで比べる)
+ */
+final class BenchmarkData {
+
+    // android.util.Base64.DEFAULT と同じく 76 文字ごとに改行 (JVM では android.util.Base64 が使えないため)
+    static final Base64.Encoder LEGACY_BASE64 = Base64.getMimeEncoder(76, new byte[]{'\n'});
+
+    static final String[] TITLES = {"行列", "固有値", "線形写像", "微分", "積分", "級数"};
+
+    private BenchmarkData() {
+    }
+
+    static byte[] image(int seed, int size) {
+        byte[] b = new byte[size];
+        new Random(seed).nextBytes(b);
+        return b;
+    }
+
+    /** count 件のノート (画像キーは画像の SHA-256、本文は 40〜200 文字) */
+    static List<NoteItem> notes(int count, List<byte[]> images) {
+        Random r = new Random(count);
+        List<NoteItem> notes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder text = new StringBuilder();
+            int length = 40 + r.nextInt(160);
+            while (text.length() < length) {
+                text.append("ノート").append(i).append(" の本文 ");
+            }
+            NoteItem item = new NoteItem(sha256(images.get(i)), TITLES[r.nextInt(TITLES.length)], text.toString());
+            item.id = i + 1;
+            notes.add(item);
+        }
+        return notes;
+    }
+
+    static List<byte[]> images(int count, int size) {
+        List<byte[]> images = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            images.add(image(i, size));
+        }
+        return images;
+    }
+
+    static String sha256(byte[] bytes) {
+        try {
+            StringBuilder sb = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(bytes)) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /** 復号した画像を数えるだけで捨てる ImageSink (ファイル書き込みの時間を含めないため) */
+    static class CountingSink implements LegacyNoteReader.ImageSink {
+        long bytes = 0;
+        int images = 0;
+
+        private final OutputStream out = new OutputStream() {
+            @Override
+            public void write(int b) {
+                bytes++;
+            }
+            @Override
+            public void write(byte[] b, int off, int len) {
+                bytes += len;
+            }
+        };
+
+        @Override
+        public OutputStream begin() {
+            return out;
+        }
+
+        @Override
+        public String commit() throws IOException {
+            return "key" + images++;
+        }
+
+        @Override
+        public void abort() {
+        }
+    }
+}
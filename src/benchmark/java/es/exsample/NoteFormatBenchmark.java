@@ -0,0 +1,127 @@
+package es.exsample;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ノート一覧の保存形式の比較 (10〜10,000件)
+ *  - legacy*  : 旧形式 (画像 Base64 ### タイトル ### 本文 @@@ を1つの文字列に連結)
+ *               saveItemListToPrefs / loadItemListFromPrefs と同じ処理 (split して1件ずつ Base64 を復号)
+ *  - streamingRead : 旧形式を LegacyNoteReader で流し読み (移行時の処理)
+ *  - journal* : 置き換え後の保存 (NoteJournal のレコード。画像は別ファイルなのでキーだけ)
+ *               journalWrite は本番と同じく fsync を含む
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NoteFormatBenchmark {
+
+    static final String ITEM_DELIMITER = "@@@";
+    static final String FIELD_DELIMITER = "###";
+
+    @Param({"10", "100", "1000", "10000"})
+    public int notes;
+
+    // 1件あたりの画像のバイト数 (-p imageBytes=... で変更)
+    @Param({"2048"})
+    public int imageBytes;
+
+    private List<NoteItem> items;
+    private List<String> base64Images;
+    private List<NoteJournal.Record> records;
+    private String legacy;
+    private File journalFile;
+    private NoteJournal journal;
+
+    @Setup
+    public void setUp() throws IOException {
+        List<byte[]> images = BenchmarkData.images(notes, imageBytes);
+        items = BenchmarkData.notes(notes, images);
+        base64Images = new ArrayList<>(notes);
+        records = new ArrayList<>(notes);
+        for (int i = 0; i < notes; i++) {
+            base64Images.add(BenchmarkData.LEGACY_BASE64.encodeToString(images.get(i)));
+            records.add(NoteJournal.Record.insert("LA", items.get(i)));
+        }
+        legacy = legacyWrite();
+
+        journalFile = File.createTempFile("bench", ".journal");
+        journal = new NoteJournal(journalFile);
+        journal.write(records);
+    }
+
+    @TearDown
+    public void tearDown() {
+        journalFile.delete();
+    }
+
+    @Benchmark
+    public String legacyWrite() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < items.size(); i++) {
+            NoteItem it = items.get(i);
+            sb.append(base64Images.get(i)).append(FIELD_DELIMITER)
+                    .append(it.spinnerText).append(FIELD_DELIMITER)
+                    .append(it.editText).append(ITEM_DELIMITER);
+        }
+        return sb.toString();
+    }
+
+    @Benchmark
+    public long legacyRead() {
+        long decoded = 0;
+        Base64.Decoder decoder = Base64.getMimeDecoder();
+        for (String chunk : legacy.split(ITEM_DELIMITER)) {
+            if (chunk.trim().isEmpty()) continue;
+            String[] f = chunk.split(FIELD_DELIMITER);
+            if (f.length < 3) continue;
+            // 一覧に表示するため1件ずつ画像を復号していた
+            decoded += decoder.decode(f[0]).length;
+        }
+        return decoded;
+    }
+
+    @Benchmark
+    public long streamingRead() throws IOException {
+        BenchmarkData.CountingSink sink = new BenchmarkData.CountingSink();
+        try (LegacyNoteReader reader = new LegacyNoteReader(new StringReader(legacy), sink)) {
+            while (reader.next(NoteItem::new) != null) {
+                // 読み捨て
+            }
+        }
+        return sink.bytes;
+    }
+
+    @Benchmark
+    public long journalWrite() throws IOException {
+        journal.truncate();
+        journal.write(records);
+        return journal.size();
+    }
+
+    @Benchmark
+    public int journalRead() throws IOException {
+        return journal.readAll().size();
+    }
+}
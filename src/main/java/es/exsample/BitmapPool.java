@@ -0,0 +1,177 @@
+package es.exsample;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.TreeMap;
+
+/**
+ * 使い終わった Bitmap を取っておき、次のデコードで inBitmap として使い回す
+ *  - 確保済みのバイト数で2のべき乗ごとの区分に分けて持ち、要求より大きい区分から取り出す
+ *  - 合計が maxBytes (MemoryTelemetry.budgetBytes の 1/4) を超えたら古いものから解放する
+ *  - 画面に表示中の Bitmap は入れないこと (入れた時点で他のデコードに上書きされうる)
+ *  - onTrimMemory の段階 (trimTier) に応じて中身を減らす
+ *  - どのスレッドから呼んでもよい
+ */
+public class BitmapPool {
+
+    private static BitmapPool instance;
+
+    public static synchronized BitmapPool getInstance(Context context) {
+        if (instance == null) {
+            instance = new BitmapPool((int) (MemoryTelemetry.budgetBytes(context) / 4));
+        }
+        return instance;
+    }
+
+    // onTrimMemory の level をまとめた段階 (大きいほど多く手放す)
+    public static final int TIER_NONE = 0;
+    public static final int TIER_MODERATE = 1;   // 再利用用の Bitmap を半分に
+    public static final int TIER_LOW = 2;        // 再利用用の Bitmap を全部、キャッシュを半分に
+    public static final int TIER_CRITICAL = 3;   // キャッシュも全部 (表示中のもの以外)
+
+    public static int trimTier(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            return TIER_CRITICAL;
+        }
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            return TIER_LOW;
+        }
+        if (level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+            return TIER_MODERATE;
+        }
+        return TIER_NONE;
+    }
+
+    private final int maxBytes;
+    // 区分 (確保バイト数の log2 の切り捨て) -> Bitmap
+    private final TreeMap<Integer, ArrayDeque<Bitmap>> buckets = new TreeMap<>();
+    private final LinkedHashSet<Bitmap> lru = new LinkedHashSet<>();   // 古い順
+    private int pooledBytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    BitmapPool(int maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * width x height 以上を確保済みの Bitmap (BitmapFactory の inBitmap 用)。無ければ null
+     *  - 大きすぎるものを使うと無駄が多いので、2区分上までしか探さない
+     */
+    public synchronized Bitmap take(int width, int height, Bitmap.Config config) {
+        int needed = width * height * bytesPerPixel(config);
+        int from = ceilLog2(needed);
+        for (int c = from; c <= from + 1; c++) {
+            Bitmap found = removeFrom(c, config, 0, 0);
+            if (found != null) return found;
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * ちょうど width x height の Bitmap (BitmapRegionDecoder の inBitmap 用、大きさが変わらないため)
+     */
+    public synchronized Bitmap takeExact(int width, int height, Bitmap.Config config) {
+        int needed = width * height * bytesPerPixel(config);
+        int from = floorLog2(needed);
+        for (int c = from; c <= from + 1; c++) {
+            Bitmap found = removeFrom(c, config, width, height);
+            if (found != null) return found;
+        }
+        misses++;
+        return null;
+    }
+
+    /** 使い終わった Bitmap を戻す (書き換えられない Bitmap は使い回せないので捨てる) */
+    public synchronized void put(Bitmap bmp) {
+        if (bmp == null || bmp.isRecycled()) return;
+        int bytes = bmp.getAllocationByteCount();
+        if (!bmp.isMutable() || bytes > maxBytes / 4 || lru.contains(bmp)) return;
+        ArrayDeque<Bitmap> bucket = buckets.get(floorLog2(bytes));
+        if (bucket == null) {
+            bucket = new ArrayDeque<>();
+            buckets.put(floorLog2(bytes), bucket);
+        }
+        bucket.add(bmp);
+        lru.add(bmp);
+        pooledBytes += bytes;
+        trimToSize(maxBytes);
+    }
+
+    public synchronized void trim(int tier) {
+        if (tier >= TIER_LOW) {
+            trimToSize(0);
+        } else if (tier >= TIER_MODERATE) {
+            trimToSize(maxBytes / 2);
+        }
+    }
+
+    public synchronized int pooledBytes() {
+        return pooledBytes;
+    }
+
+    /** inBitmap に使えた割合 (0〜1)。まだ1回も取り出していなければ -1 */
+    public synchronized double hitRate() {
+        long total = hits + misses;
+        return total > 0 ? (double) hits / total : -1;
+    }
+
+    public synchronized String stats() {
+        return "pool " + pooledBytes / 1024 + "KB/" + maxBytes / 1024 + "KB (" + lru.size()
+                + "枚, hit " + hits + " / miss " + misses + ")";
+    }
+
+    // width == 0 なら大きさは問わない
+    private Bitmap removeFrom(int sizeClass, Bitmap.Config config, int width, int height) {
+        ArrayDeque<Bitmap> bucket = buckets.get(sizeClass);
+        if (bucket == null) return null;
+        for (Iterator<Bitmap> it = bucket.iterator(); it.hasNext(); ) {
+            Bitmap bmp = it.next();
+            if (bmp.getConfig() != config) continue;
+            if (width != 0 && (bmp.getWidth() != width || bmp.getHeight() != height)) continue;
+            it.remove();
+            lru.remove(bmp);
+            pooledBytes -= bmp.getAllocationByteCount();
+            hits++;
+            return bmp;
+        }
+        return null;
+    }
+
+    private void trimToSize(int size) {
+        Iterator<Bitmap> it = lru.iterator();
+        while (pooledBytes > size && it.hasNext()) {
+            Bitmap oldest = it.next();
+            it.remove();
+            int bytes = oldest.getAllocationByteCount();
+            buckets.get(floorLog2(bytes)).remove(oldest);
+            pooledBytes -= bytes;
+            oldest.recycle();
+        }
+    }
+
+    private static int bytesPerPixel(Bitmap.Config config) {
+        switch (config) {
+            case ALPHA_8: return 1;
+            case RGB_565: return 2;
+            case RGBA_F16: return 8;
+            default: return 4;
+        }
+    }
+
+    private static int floorLog2(int n) {
+        return 31 - Integer.numberOfLeadingZeros(Math.max(n, 1));
+    }
+
+    private static int ceilLog2(int n) {
+        return n <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(n - 1);
+    }
+}
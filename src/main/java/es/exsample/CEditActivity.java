@@ -1,20 +1,15 @@
 package es.exsample;
 
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Bundle;
 import android.provider.MediaStore;
-import android.util.Base64;
 import android.view.View;
 import android.widget.*;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AppCompatActivity;
 
-import java.io.ByteArrayOutputStream;
-import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -27,12 +22,7 @@ public class CEditActivity extends AppCompatActivity {
 
     private static final int REQUEST_EDIT_GALLERY = 101;
 
-    private static final String ITEM_DELIMITER = "@@@";
-    private static final String FIELD_DELIMITER = "###";
-    private static final String PREF_NAME = "CalculusPrefs";
-    private static final String KEY_ITEM_LIST = "CAL_ITEM_LIST";
-
-    private int itemIndex = -1;
+    private long noteId = -1;
     private String activityTitle = "編集中";
 
     private Button btnClose, btnSave;
@@ -43,8 +33,12 @@ public class CEditActivity extends AppCompatActivity {
 
     private Bitmap editBitmap = null;
     private boolean hasNewImage = false;
+    private String newImageKey = null;   // 取り込み済みの新しい画像のキー
+    private boolean restoredInput = false;   // 入力途中の内容が復元される (画面の再作成)
 
-    private List<CalculusActivity.CalItem> itemList = new ArrayList<>();
+    private NoteStore noteStore;
+    private ImageImporter imageImporter;
+    private NoteStore.Subject<CalculusActivity.CalItem> notes;
     private CalculusActivity.CalItem currentItem;
 
     private List<String> calcTitles;
@@ -52,6 +46,8 @@ public class CEditActivity extends AppCompatActivity {
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        // 画面の作成にかかった時間 (診断情報画面で確認できる)
+        NoteMetrics.Section created = NoteMetrics.begin("CEdit.onCreate");
         setContentView(R.layout.c_edit);
 
         btnClose = findViewById(R.id.btn_close_edit);
@@ -62,15 +58,14 @@ public class CEditActivity extends AppCompatActivity {
         spinnerEdit = findViewById(R.id.spinner_edit);
         editTextEdit = findViewById(R.id.et_edit_text);
 
-        itemIndex = getIntent().getIntExtra("INDEX", -1);
+        noteId = getIntent().getLongExtra("NOTE_ID", -1);
         activityTitle = getIntent().getStringExtra("ACTIVITY_TITLE");
         if (activityTitle == null) activityTitle = "編集中";
         tvTitle.setText(activityTitle + " - 編集中");
 
-        itemList = loadItemListFromPrefs();
-        if (itemIndex >= 0 && itemIndex < itemList.size()) {
-            currentItem = itemList.get(itemIndex);
-        }
+        noteStore = NoteStore.get(this);
+        notes = noteStore.calculus();
+        imageImporter = new ImageImporter(this, noteStore);
 
         // Spinner
         String[] arr = getResources().getStringArray(R.array.calculus_menu);
@@ -84,22 +79,10 @@ public class CEditActivity extends AppCompatActivity {
         spAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
         spinnerEdit.setAdapter(spAdapter);
 
-        // 既存データ
-        if (currentItem != null) {
-            setSpinnerSelection(spinnerEdit, currentItem.spinnerText);
-            editTextEdit.setText(currentItem.editText);
-
-            // 既存画像(高解像度1200)
-            Bitmap existing = decodeBase64ToBitmap(currentItem.base64Image, 1200);
-            if (existing != null) {
-                editBitmap = existing;
-                ibEditImage.setImageBitmap(editBitmap);
-                tvEditImageHint.setVisibility(View.GONE);
-            } else {
-                ibEditImage.setImageResource(android.R.drawable.ic_menu_gallery);
-                tvEditImageHint.setVisibility(View.VISIBLE);
-            }
-        }
+        // 編集用のコピー (保存ボタンまで共有のノートは変わらない)。読み込み前なら届いてから表示する
+        restoredInput = savedInstanceState != null;
+        btnSave.setEnabled(false);
+        notes.get(noteId, this::bindNote);
 
         ibEditImage.setOnClickListener(v -> {
             Intent intent = new Intent(Intent.ACTION_PICK, MediaStore.Images.Media.EXTERNAL_CONTENT_URI);
@@ -112,6 +95,10 @@ public class CEditActivity extends AppCompatActivity {
                 finishToCalculus();
                 return;
             }
+            if (imageImporter.isRunning()) {
+                Toast.makeText(this, "画像を読み込み中です", Toast.LENGTH_SHORT).show();
+                return;
+            }
             String spVal = getSpinnerVal();
             String newText = editTextEdit.getText().toString().trim();
             if (spVal.equals("タイトル選択")) {
@@ -126,17 +113,39 @@ public class CEditActivity extends AppCompatActivity {
             currentItem.spinnerText = spVal;
             currentItem.editText = newText;
 
-            if (hasNewImage && editBitmap != null) {
-                String b64 = encodeBitmapToBase64(editBitmap);
-                if (b64 != null) {
-                    currentItem.base64Image = b64;
-                }
+            if (hasNewImage && newImageKey != null) {
+                currentItem.imageKey = newImageKey;
             }
-            itemList.set(itemIndex, currentItem);
-            saveItemListToPrefs(itemList);
+            notes.update(currentItem);
 
             finishToCalculus();
         });
+        created.close();
+    }
+
+    // 編集するノートを表示する (削除済みなら null)
+    private void bindNote(CalculusActivity.CalItem item) {
+        if (isDestroyed()) return;
+        currentItem = item;
+        btnSave.setEnabled(true);
+        if (currentItem == null) return;
+        // 画面の再作成時は入力途中の内容 (復元済み) を上書きしない
+        if (!restoredInput) {
+            setSpinnerSelection(spinnerEdit, currentItem.spinnerText);
+            editTextEdit.setText(currentItem.editText);
+        }
+
+        // 既存画像(高解像度1200) (デコードはバックグラウンドで、届いたら表示)
+        imageImporter.loadStored(currentItem.imageKey, 1200, existing -> {
+            if (existing != null) {
+                editBitmap = existing;
+                ibEditImage.setImageBitmap(editBitmap);
+                tvEditImageHint.setVisibility(View.GONE);
+            } else {
+                ibEditImage.setImageResource(android.R.drawable.ic_menu_gallery);
+                tvEditImageHint.setVisibility(View.VISIBLE);
+            }
+        });
     }
 
     private void finishToCalculus() {
@@ -167,113 +176,59 @@ public class CEditActivity extends AppCompatActivity {
         super.onActivityResult(req, res, data);
         if (req == REQUEST_EDIT_GALLERY && res == RESULT_OK && data != null && data.getData() != null) {
             Uri uri = data.getData();
-            // 高解像度1200
-            Bitmap newBmp = decodeUriToBitmap(uri, 1200);
-            if (newBmp != null) {
-                editBitmap = newBmp;
-                hasNewImage = true;
-                ibEditImage.setImageBitmap(editBitmap);
-                tvEditImageHint.setVisibility(View.GONE);
-            } else {
-                Toast.makeText(this, "画像取得に失敗しました", Toast.LENGTH_SHORT).show();
-            }
-        }
-    }
-
-    // ============== SharedPreferences ================
-    private List<CalculusActivity.CalItem> loadItemListFromPrefs() {
-        String s = getSharedPreferences(PREF_NAME, MODE_PRIVATE).getString(KEY_ITEM_LIST, "");
-        List<CalculusActivity.CalItem> result = new ArrayList<>();
-        if (s.isEmpty()) return result;
-
-        String[] items = s.split(ITEM_DELIMITER);
-        for (String it : items) {
-            if (it.trim().isEmpty()) continue;
-            String[] f = it.split(FIELD_DELIMITER);
-            if (f.length < 3) continue;
-            result.add(new CalculusActivity.CalItem(f[0], f[1], f[2]));
-        }
-        return result;
-    }
-
-    private void saveItemListToPrefs(List<CalculusActivity.CalItem> list) {
-        StringBuilder sb = new StringBuilder();
-        for (CalculusActivity.CalItem c : list) {
-            sb.append(c.base64Image).append(FIELD_DELIMITER)
-                    .append(c.spinnerText).append(FIELD_DELIMITER)
-                    .append(c.editText).append(ITEM_DELIMITER);
-        }
-        getSharedPreferences(PREF_NAME, MODE_PRIVATE)
-                .edit()
-                .putString(KEY_ITEM_LIST, sb.toString())
-                .apply();
-    }
-
-    // ============== 画像処理 ================
-    private Bitmap decodeUriToBitmap(Uri uri, int maxSize) {
-        try {
-            BitmapFactory.Options opts = new BitmapFactory.Options();
-            opts.inJustDecodeBounds = true;
-            InputStream in = getContentResolver().openInputStream(uri);
-            BitmapFactory.decodeStream(in, null, opts);
-            in.close();
-
-            int w = opts.outWidth;
-            int h = opts.outHeight;
-            int inSampleSize = 1;
-            while (w / inSampleSize > maxSize || h / inSampleSize > maxSize) {
-                inSampleSize *= 2;
-            }
-            opts.inSampleSize = inSampleSize;
-            opts.inJustDecodeBounds = false;
-
-            in = getContentResolver().openInputStream(uri);
-            Bitmap sampled = BitmapFactory.decodeStream(in, null, opts);
-            in.close();
-            if (sampled == null) return null;
-
-            return scaleBitmap(sampled, maxSize);
-        } catch (Exception e) {
-            e.printStackTrace();
-            return null;
+            // 画質向上(1200)。デコード・縮小・保存はバックグラウンドで (進捗はヒント欄に表示)
+            tvEditImageHint.setVisibility(View.VISIBLE);
+            imageImporter.start(uri, 1200, new ImageImporter.Callback() {
+                @Override
+                public void onProgress(int percent) {
+                    tvEditImageHint.setText("読み込み中 " + percent + "%");
+                }
+                @Override
+                public void onImported(Bitmap bmp, String imageKey) {
+                    discardNewImage();
+                    Bitmap previous = editBitmap;
+                    editBitmap = bmp;
+                    newImageKey = imageKey;
+                    hasNewImage = true;
+                    ibEditImage.setImageBitmap(editBitmap);
+                    // 表示から外れた前の画像は次のデコードに使い回す
+                    BitmapPool.getInstance(getApplicationContext()).put(previous);
+                    tvEditImageHint.setText("画像選択");
+                    tvEditImageHint.setVisibility(View.GONE);
+                }
+                @Override
+                public void onFailed() {
+                    tvEditImageHint.setText("画像選択");
+                    tvEditImageHint.setVisibility(editBitmap == null ? View.VISIBLE : View.GONE);
+                    Toast.makeText(getApplicationContext(), "画像取得に失敗しました", Toast.LENGTH_SHORT).show();
+                }
+            });
         }
     }
 
-    private Bitmap scaleBitmap(Bitmap src, int maxSize) {
-        int w = src.getWidth();
-        int h = src.getHeight();
-        if (w <= maxSize && h <= maxSize) return src;
-        float ratio = (float) w / (float) h;
-        if (ratio > 1f) {
-            w = maxSize;
-            h = (int)(maxSize / ratio);
-        } else {
-            h = maxSize;
-            w = (int)(maxSize * ratio);
+    /**
+     * 取り込んだが保存しなかった画像を捨てる (保存済みなら参照があるので消えない)
+     */
+    private void discardNewImage() {
+        if (newImageKey != null) {
+            noteStore.releaseImageIfUnused(newImageKey);
         }
-        return Bitmap.createScaledBitmap(src, w, h, true);
+        newImageKey = null;
     }
 
-    private String encodeBitmapToBase64(Bitmap bmp) {
-        try {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            bmp.compress(Bitmap.CompressFormat.PNG, 100, baos);
-            return Base64.encodeToString(baos.toByteArray(), Base64.DEFAULT);
-        } catch (Exception e) {
-            e.printStackTrace();
-            return null;
-        }
+    @Override
+    protected void onResume() {
+        super.onResume();
+        MemoryTelemetry.record(this, "CEdit");
     }
 
-    private Bitmap decodeBase64ToBitmap(String base64, int maxSize) {
-        try {
-            byte[] bytes = Base64.decode(base64, Base64.DEFAULT);
-            Bitmap raw = BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
-            if (raw == null) return null;
-            return scaleBitmap(raw, maxSize);
-        } catch (Exception e) {
-            e.printStackTrace();
-            return null;
-        }
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        discardNewImage();
+        // 編集中の画像は画面と一緒に手放す
+        ibEditImage.setImageDrawable(null);
+        BitmapPool.getInstance(getApplicationContext()).put(editBitmap);
+        editBitmap = null;
     }
 }
@@ -1,20 +1,22 @@
 package es.exsample;
 
 import android.content.Intent;
-import android.content.SharedPreferences;
+import android.content.pm.ApplicationInfo;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Bundle;
-import android.provider.MediaStore;
-import android.util.Base64;
+import android.os.SystemClock;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.View;
+import android.view.inputmethod.EditorInfo;
 import android.widget.*;
 import androidx.annotation.Nullable;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
-import java.io.ByteArrayOutputStream;
-import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -22,21 +24,18 @@ import java.util.List;
  * 微分積分画面
  * - ImageButton 初期状態は src=null
  * - 追加後に clearInputFields() で setImageDrawable(null) & hint 再表示
- * - 画質は PNG(100%)
+ * - 画像の保存形式は ImageEncodePolicy (写真は非可逆、線画は PNG)
  * - 編集画面は変更不要
  */
 public class CalculusActivity extends AppCompatActivity {
 
     private static final int REQUEST_GALLERY = 1;
+    private static final int REQUEST_EXPORT = 2;
+    private static final int REQUEST_IMPORT = 3;
 
-    public static class CalItem {
-        public String base64Image;
-        public String spinnerText;
-        public String editText;
-        public CalItem(String base64Image, String spinnerText, String editText) {
-            this.base64Image = base64Image;
-            this.spinnerText = spinnerText;
-            this.editText = editText;
+    public static class CalItem extends NoteItem {
+        public CalItem(String imageKey, String spinnerText, String editText) {
+            super(imageKey, spinnerText, editText);
         }
     }
 
@@ -46,30 +45,52 @@ public class CalculusActivity extends AppCompatActivity {
     private EditText editTextField;
     private Button btnAdd;
     private Spinner searchSpinner;
-    private LinearLayout dynamicContainer;
+    private EditText searchText;
+    private TextView tvSearchLatency;   // 検索の所要時間 (デバッグビルドのみ)
+    private RecyclerView dynamicContainer;
+    private NoteListAdapter listAdapter;
 
     // 選択中の画像
     private Bitmap selectedBitmap = null;
+    private String selectedImageKey = null; // 取り込み済み画像のキー (NoteImageStore)
     private boolean isSpinnerSelected = false;
     private String selectedSpinnerItem;
 
     private List<CalItem> itemList = new ArrayList<>();
 
-    private static final String PREF_NAME = "CalculusPrefs";
-    private static final String KEY_ITEM_LIST = "CAL_ITEM_LIST";
-    private static final String ITEM_DELIMITER = "@@@";
-    private static final String FIELD_DELIMITER = "###";
+    private NoteStore noteStore;
+    private NoteStore.Subject<CalItem> notes;
+    private ThumbnailLoader thumbnailLoader;
+    private ImageImporter imageImporter;
+    private NoteSearcher<CalItem> searcher;
+    private NotePager<CalItem> pager;   // 全件の読み込み中だけ使う (読み込み後は null)
+    private List<CalItem> pagedItems = new ArrayList<>();
+    private long renderedVersion;   // 一覧に反映済みのデータバージョン
+    private final NoteListTrace listTrace = new NoteListTrace();
 
     private List<String> calcTitles;
     private List<String> searchSpinnerItems;
+    private String searchQuery = "";   // 全文検索の語 (空なら検索なし)
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        // 画面の作成にかかった時間 (診断情報画面で確認できる)
+        NoteMetrics.Section created = NoteMetrics.begin("Calculus.onCreate");
+        listTrace.begin(NoteListTrace.FIRST_ROW);
         setContentView(R.layout.calculus);
 
         Button btnBack = findViewById(R.id.btn_back);
         btnBack.setOnClickListener(v -> finish());
+        findViewById(R.id.btn_archive).setOnClickListener(v -> showArchiveMenu());
+
+        thumbnailLoader = ThumbnailLoader.getInstance(this);
+        noteStore = NoteStore.get(this);
+        notes = noteStore.calculus();
+        thumbnailLoader.backfillMissing(noteStore);
+        ImageReencodeJob.startOnce(this);
+        imageImporter = new ImageImporter(this, noteStore);
+        searcher = new NoteSearcher<>(this, notes, this::showSearchResults);
 
         imageButton = findViewById(R.id.image_button);
         tvImageHint = findViewById(R.id.tv_image_button_hint);
@@ -77,8 +98,15 @@ public class CalculusActivity extends AppCompatActivity {
         editTextField = findViewById(R.id.edit_text);
         btnAdd = findViewById(R.id.btn_add);
         searchSpinner = findViewById(R.id.search_spinner);
+        searchText = findViewById(R.id.search_text);
+        tvSearchLatency = findViewById(R.id.tv_search_latency);
         dynamicContainer = findViewById(R.id.dynamic_table_container);
 
+        dynamicContainer.setLayoutManager(new LinearLayoutManager(this));
+        listAdapter = new NoteListAdapter(thumbnailLoader, ExpansionPrefetcher.getInstance(this),
+                (item, position) -> openExpansion(item));
+        dynamicContainer.setAdapter(listAdapter);
+
         // データ入力用 Spinner
         String[] fromRes = getResources().getStringArray(R.array.calculus_menu);
         calcTitles = new ArrayList<>();
@@ -110,7 +138,11 @@ public class CalculusActivity extends AppCompatActivity {
 
         btnAdd.setOnClickListener(v -> {
             String textVal = editTextField.getText().toString().trim();
-            if (selectedBitmap == null) {
+            if (imageImporter.isRunning()) {
+                Toast.makeText(this, "画像を読み込み中です", Toast.LENGTH_SHORT).show();
+                return;
+            }
+            if (selectedImageKey == null) {
                 Toast.makeText(this, "画像を選択してください", Toast.LENGTH_SHORT).show();
                 return;
             }
@@ -123,46 +155,136 @@ public class CalculusActivity extends AppCompatActivity {
                 return;
             }
 
-            String base64 = encodeBitmapToBase64(selectedBitmap);
-            if (base64 == null) {
-                Toast.makeText(this, "画像のエンコードに失敗しました", Toast.LENGTH_SHORT).show();
-                return;
-            }
-
-            CalItem item = new CalItem(base64, selectedSpinnerItem, textVal);
+            // 画像は取り込み時にファイル保存済み (ノートにはキーだけを持たせる)
+            CalItem item = new CalItem(selectedImageKey, selectedSpinnerItem, textVal);
+            notes.add(item);
             itemList.add(item);
-            reloadDynamicViews(itemList);
-            saveItemListToPrefs(itemList);
+            showFiltered();
 
             clearInputFields();
         });
 
-        itemList = loadItemListFromPrefs();
-        reloadDynamicViews(itemList);
+        // 全件がメモリに読み込み済みならそこから。まだなら見出しをページ単位で表示しながら読み込みを待つ
+        if (notes.isLoaded()) {
+            showAllNotes();
+        } else {
+            pager = new NotePager<>(this, notes, dynamicContainer, this::showPage);
+            pager.start();
+            notes.whenLoaded(this::showAllNotes);
+        }
 
         setupSearchSpinner();
+        created.close();
+    }
+
+    /** バックアップ: この科目のノートを zip に書き出す / zip から読み込んで追加する */
+    private void showArchiveMenu() {
+        new AlertDialog.Builder(this)
+                .setTitle("バックアップ")
+                .setItems(new String[]{"書き出し", "読み込み"}, (dialog, which) -> {
+                    if (which == 0) {
+                        startActivityForResult(NoteArchiveService.newExportIntent(NoteRepository.SUBJECT_CAL), REQUEST_EXPORT);
+                    } else {
+                        startActivityForResult(NoteArchiveService.newImportIntent(), REQUEST_IMPORT);
+                    }
+                })
+                .show();
     }
 
     private void openGallery() {
-        Intent intent = new Intent(Intent.ACTION_PICK, MediaStore.Images.Media.EXTERNAL_CONTENT_URI);
-        startActivityForResult(intent, REQUEST_GALLERY);
+        // 複数枚選ぶと一括取り込み (importBulk)
+        startActivityForResult(ImageImporter.newPickIntent(), REQUEST_GALLERY);
     }
 
     @Override
     protected void onActivityResult(int requestCode, int resultCode, @Nullable Intent data) {
         super.onActivityResult(requestCode, resultCode, data);
-        if (requestCode == REQUEST_GALLERY && resultCode == RESULT_OK && data != null && data.getData() != null) {
-            Uri uri = data.getData();
-            Bitmap bmp = decodeUriToBitmap(uri, 600);
-            if (bmp != null) {
-                selectedBitmap = bmp;
-                // ImageButton に表示
-                imageButton.setImageBitmap(bmp);
-                tvImageHint.setVisibility(View.GONE);
-            } else {
-                Toast.makeText(this, "画像の取得に失敗しました", Toast.LENGTH_SHORT).show();
+        if (resultCode != RESULT_OK || data == null) return;
+        if ((requestCode == REQUEST_EXPORT || requestCode == REQUEST_IMPORT) && data.getData() != null) {
+            // 書き出し/読み込みはフォアグラウンドサービスで (進捗は通知に表示)
+            NoteArchiveService.start(this, requestCode == REQUEST_EXPORT
+                            ? NoteArchiveService.ACTION_EXPORT : NoteArchiveService.ACTION_IMPORT,
+                    NoteRepository.SUBJECT_CAL, data.getData());
+            return;
+        }
+        if (requestCode != REQUEST_GALLERY) return;
+        List<Uri> uris = ImageImporter.pickedUris(data);
+        if (uris.size() > 1) {
+            importBulk(uris);
+        } else if (uris.size() == 1) {
+            Uri uri = uris.get(0);
+            // デコード・縮小・保存はバックグラウンドで (進捗はヒント欄に表示)
+            tvImageHint.setVisibility(View.VISIBLE);
+            imageImporter.start(uri, 600, new ImageImporter.Callback() {
+                @Override
+                public void onProgress(int percent) {
+                    tvImageHint.setText("読み込み中 " + percent + "%");
+                }
+                @Override
+                public void onImported(Bitmap bmp, String imageKey) {
+                    discardSelectedImage();
+                    selectedBitmap = bmp;
+                    selectedImageKey = imageKey;
+                    imageButton.setImageBitmap(bmp);
+                    tvImageHint.setText("画像選択");
+                    tvImageHint.setVisibility(View.GONE);
+                }
+                @Override
+                public void onFailed() {
+                    tvImageHint.setText("画像選択");
+                    tvImageHint.setVisibility(selectedBitmap == null ? View.VISIBLE : View.GONE);
+                    Toast.makeText(getApplicationContext(), "画像の取得に失敗しました", Toast.LENGTH_SHORT).show();
+                }
+            });
+        }
+    }
+
+    /**
+     * 複数枚選んだとき: 1枚ごとに、選択中のタイトルと入力中のテキストでノートを作る
+     *  - 取り込みは並列にバックグラウンドで行い、ノートは全部そろってからまとめて追加する
+     */
+    private void importBulk(List<Uri> uris) {
+        if (!isSpinnerSelected) {
+            Toast.makeText(this, "タイトルを選択してから画像を選んでください", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        String title = selectedSpinnerItem;
+        String textVal = editTextField.getText().toString().trim();
+        tvImageHint.setVisibility(View.VISIBLE);
+        tvImageHint.setText("取り込み中 0/" + uris.size());
+        imageImporter.startBulk(uris, 600, new ImageImporter.BulkCallback() {
+            @Override
+            public void onProgress(int done, int failed, int total) {
+                tvImageHint.setText("取り込み中 " + done + "/" + total
+                        + (failed > 0 ? " (失敗 " + failed + ")" : ""));
             }
+            @Override
+            public void onFinished(List<String> imageKeys, int failed) {
+                List<CalItem> added = new ArrayList<>();
+                for (String key : imageKeys) {
+                    added.add(new CalItem(key, title, textVal));
+                }
+                // 1つのトランザクションで保存される
+                notes.addAll(added);
+                itemList.addAll(added);
+                showFiltered();
+                tvImageHint.setText("画像選択");
+                tvImageHint.setVisibility(selectedBitmap == null ? View.VISIBLE : View.GONE);
+                Toast.makeText(getApplicationContext(), added.size() + "件のノートを追加しました"
+                        + (failed > 0 ? " (失敗 " + failed + "件)" : ""), Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
+    /**
+     * 取り込んだがノートに使わなかった画像を捨てる
+     */
+    private void discardSelectedImage() {
+        if (selectedImageKey != null) {
+            noteStore.releaseImageIfUnused(selectedImageKey);
         }
+        selectedBitmap = null;
+        selectedImageKey = null;
     }
 
     private void setupSearchSpinner() {
@@ -180,206 +302,182 @@ public class CalculusActivity extends AppCompatActivity {
         searchSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
             @Override
             public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
-                String sel = searchSpinnerItems.get(position);
-                if (sel.equals("すべて")) {
-                    reloadDynamicViews(itemList);
-                } else {
-                    List<CalItem> filtered = new ArrayList<>();
-                    for (CalItem c : itemList) {
-                        if (c.spinnerText.equals(sel)) {
-                            filtered.add(c);
-                        }
-                    }
-                    reloadDynamicViews(filtered);
-                }
+                listTrace.begin(NoteListTrace.FILTER);
+                showFiltered();
             }
             @Override
             public void onNothingSelected(AdapterView<?> parent) {}
         });
+
+        // キーワード検索 (入力が止まったら検索。検索ボタンなら待たずに検索、空にしたら解除)
+        searchText.setOnEditorActionListener((v, actionId, event) -> {
+            if (actionId != EditorInfo.IME_ACTION_SEARCH) return false;
+            searchQuery = searchText.getText().toString().trim();
+            showFiltered();
+            return true;
+        });
+        searchText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {}
+            @Override
+            public void afterTextChanged(Editable s) {
+                String query = s.toString().trim();
+                if (query.equals(searchQuery)) return;
+                searchQuery = query;
+                if (query.isEmpty()) {
+                    showFiltered();
+                } else {
+                    searcher.onQueryChanged(query);
+                }
+            }
+        });
     }
 
-    private void reloadDynamicViews(List<CalItem> list) {
-        dynamicContainer.removeAllViews();
-        for (int i = 0; i < list.size(); i++) {
-            addDynamicItem(list.get(i), i);
+    /**
+     * 検索語とタイトル (検索用 Spinner) の条件で一覧を表示する
+     *  - 検索語があれば全文検索 (バックグラウンド) の結果をスコア順に、無ければ登録順に並べる
+     */
+    private void showFiltered() {
+        if (pager != null) {
+            // 全件の読み込み中はページ表示のまま (絞り込みは読み込み後に showAllNotes から反映)
+            if (searchQuery.isEmpty() && selectedSearchCategory() == null) {
+                reloadDynamicViews(pagedItems);
+            }
+            return;
+        }
+        if (!searchQuery.isEmpty()) {
+            searcher.searchNow(searchQuery);
+            return;
         }
+        searcher.cancel();
+        tvSearchLatency.setVisibility(View.GONE);
+        listAdapter.setHighlightQuery("");
+        // タイトル別の一覧は NoteStore が持っているので、全件を走査しない
+        String category = selectedSearchCategory();
+        reloadDynamicViews(category == null ? itemList : notes.getByCategory(category));
     }
 
-    private void addDynamicItem(CalItem item, int position) {
-        TableRow row = new TableRow(this);
-        row.setLayoutParams(new TableRow.LayoutParams(
-                TableRow.LayoutParams.MATCH_PARENT,
-                TableRow.LayoutParams.WRAP_CONTENT
-        ));
-        row.setPadding(8, 8, 8, 8);
-
-        ImageView iv = new ImageView(this);
-        TableRow.LayoutParams ivParams = new TableRow.LayoutParams(
-                0, TableRow.LayoutParams.MATCH_PARENT, 1f
-        );
-        iv.setLayoutParams(ivParams);
-
-        Bitmap small = decodeBase64ToBitmap(item.base64Image, 300);
-        if (small != null) {
-            iv.setImageBitmap(small);
-        } else {
-            iv.setImageResource(android.R.drawable.ic_menu_gallery);
+    /** 全件の読み込みが終わった (または済んでいた) -> メモリ上の一覧に切り替える */
+    private void showAllNotes() {
+        if (isDestroyed()) return;
+        if (pager != null) {
+            pager.stop();
+            pager = null;
+            pagedItems = new ArrayList<>();
         }
+        renderedVersion = notes.getVersion();
+        itemList = notes.getAll();
+        showFiltered();
+    }
 
-        LinearLayout textLayout = new LinearLayout(this);
-        textLayout.setOrientation(LinearLayout.VERTICAL);
-        TableRow.LayoutParams txtParams = new TableRow.LayoutParams(
-                0, TableRow.LayoutParams.MATCH_PARENT, 2f
-        );
-        textLayout.setLayoutParams(txtParams);
-
-        TextView tvSpin = new TextView(this);
-        tvSpin.setLayoutParams(new LinearLayout.LayoutParams(
-                LinearLayout.LayoutParams.MATCH_PARENT, 0, 1f));
-        tvSpin.setText(item.spinnerText);
-
-        TextView tvEdit = new TextView(this);
-        tvEdit.setLayoutParams(new LinearLayout.LayoutParams(
-                LinearLayout.LayoutParams.MATCH_PARENT, 0, 2f));
-        tvEdit.setText(item.editText);
-
-        textLayout.addView(tvSpin);
-        textLayout.addView(tvEdit);
-
-        row.addView(iv);
-        row.addView(textLayout);
-
-        row.setOnClickListener(v -> {
-            Intent intent = new Intent(this, CExpansionActivity.class);
-            intent.putExtra("INDEX", position);
-            intent.putExtra("ACTIVITY_TITLE", "微分積分");
-            startActivity(intent);
-        });
-
-        dynamicContainer.addView(row);
+    /** 読み込み中のページ表示 (絞り込み・検索中なら表示は変えない) */
+    private void showPage(List<CalItem> loaded) {
+        pagedItems = loaded;
+        if (searchQuery.isEmpty() && selectedSearchCategory() == null) {
+            reloadDynamicViews(loaded);
+        }
     }
 
     /**
-     * 追加後リセット -> ImageButton に何も設定せず、hint復活
+     * 全文検索の結果 (UI スレッド)。入力がさらに進んでいれば捨てる
      */
-    private void clearInputFields() {
-        selectedBitmap = null;
-        imageButton.setImageDrawable(null);
-        tvImageHint.setVisibility(View.VISIBLE);
-
-        spinner.setSelection(0);
-        isSpinnerSelected = false;
-        selectedSpinnerItem = null;
-
-        editTextField.setText("");
+    private void showSearchResults(String query, List<CalItem> results, long queryMillis, long inputAt) {
+        if (!query.equals(searchQuery)) return;
+        List<CalItem> filtered = filterByTitle(results);
+        listAdapter.setHighlightQuery(query);
+        // 差分の計算は ListAdapter がバックグラウンドで行う。反映し終えた時点までを計測する
+        listAdapter.submitList(filtered, () -> {
+            onListCommitted();
+            if ((getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) == 0) return;
+            long total = SystemClock.uptimeMillis() - inputAt;
+            tvSearchLatency.setText("検索 " + queryMillis + "ms / 入力から表示 " + total
+                    + "ms (" + filtered.size() + "件)");
+            tvSearchLatency.setVisibility(View.VISIBLE);
+        });
     }
 
-    private void saveItemListToPrefs(List<CalItem> list) {
-        StringBuilder sb = new StringBuilder();
-        for (CalItem c : list) {
-            sb.append(c.base64Image).append(FIELD_DELIMITER)
-                    .append(c.spinnerText).append(FIELD_DELIMITER)
-                    .append(c.editText).append(ITEM_DELIMITER);
-        }
-        getSharedPreferences(PREF_NAME, MODE_PRIVATE)
-                .edit()
-                .putString(KEY_ITEM_LIST, sb.toString())
-                .apply();
+    /** 検索用 Spinner で選ばれているタイトル (「すべて」なら null) */
+    private String selectedSearchCategory() {
+        int pos = searchSpinner.getSelectedItemPosition();
+        return pos > 0 ? searchSpinnerItems.get(pos) : null;
     }
 
-    private List<CalItem> loadItemListFromPrefs() {
-        String stored = getSharedPreferences(PREF_NAME, MODE_PRIVATE)
-                .getString(KEY_ITEM_LIST, "");
-        List<CalItem> result = new ArrayList<>();
-        if (stored.isEmpty()) return result;
-
-        String[] items = stored.split(ITEM_DELIMITER);
-        for (String chunk : items) {
-            if (chunk.trim().isEmpty()) continue;
-            String[] f = chunk.split(FIELD_DELIMITER);
-            if (f.length < 3) continue;
-            result.add(new CalItem(f[0], f[1], f[2]));
+    private List<CalItem> filterByTitle(List<CalItem> source) {
+        String sel = selectedSearchCategory();
+        if (sel == null) return source;
+        List<CalItem> filtered = new ArrayList<>();
+        for (CalItem c : source) {
+            if (c.spinnerText.equals(sel)) {
+                filtered.add(c);
+            }
         }
-        return result;
+        return filtered;
     }
 
-    //==================================
-    // 画像処理
-    //==================================
-    private Bitmap decodeUriToBitmap(Uri uri, int maxSize) {
-        try {
-            BitmapFactory.Options opts = new BitmapFactory.Options();
-            opts.inJustDecodeBounds = true;
-            InputStream in = getContentResolver().openInputStream(uri);
-            BitmapFactory.decodeStream(in, null, opts);
-            in.close();
-
-            int w = opts.outWidth;
-            int h = opts.outHeight;
-            int inSampleSize = 1;
-            while ((w / inSampleSize) > maxSize || (h / inSampleSize) > maxSize) {
-                inSampleSize *= 2;
-            }
-            opts.inSampleSize = inSampleSize;
-            opts.inJustDecodeBounds = false;
-
-            in = getContentResolver().openInputStream(uri);
-            Bitmap sampled = BitmapFactory.decodeStream(in, null, opts);
-            in.close();
-            if (sampled == null) return null;
-
-            return scaleBitmap(sampled, maxSize);
-        } catch (Exception e) {
-            e.printStackTrace();
-            return null;
-        }
+    /**
+     * 一覧の差し替え -> DiffUtil で差分のある行だけ再バインドされる
+     */
+    private void reloadDynamicViews(List<CalItem> list) {
+        long submittedAt = SystemClock.elapsedRealtimeNanos();
+        listAdapter.submitList(new ArrayList<>(list), () -> {
+            NoteMetrics.record(NoteMetrics.LIST_RELOAD, SystemClock.elapsedRealtimeNanos() - submittedAt);
+            onListCommitted();
+        });
     }
 
-    private Bitmap scaleBitmap(Bitmap src, int maxSize) {
-        if (src == null) return null;
-        int w = src.getWidth();
-        int h = src.getHeight();
-        if (w <= maxSize && h <= maxSize) return src;
-        float ratio = (float) w / (float) h;
-        if (ratio > 1f) {
-            w = maxSize;
-            h = (int)(maxSize / ratio);
-        } else {
-            h = maxSize;
-            w = (int)(maxSize * ratio);
+    /** 一覧に反映し終えた -> 計測中の区間を閉じる (最初の行が出たら表示完了を報告する) */
+    private void onListCommitted() {
+        if (listAdapter.getItemCount() > 0 && listTrace.end(NoteListTrace.FIRST_ROW)) {
+            reportFullyDrawn();
         }
-        return Bitmap.createScaledBitmap(src, w, h, true);
+        listTrace.end(NoteListTrace.FILTER);
     }
 
-    private String encodeBitmapToBase64(Bitmap bmp) {
-        try {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            bmp.compress(Bitmap.CompressFormat.PNG, 100, baos);
-            byte[] bytes = baos.toByteArray();
-            return Base64.encodeToString(bytes, Base64.DEFAULT);
-        } catch (Exception e) {
-            e.printStackTrace();
-            return null;
-        }
+    private void openExpansion(NoteItem item) {
+        // 拡大表示へ
+        Intent intent = new Intent(this, CExpansionActivity.class);
+        // 位置ではなくノートID を渡す (絞り込み中や削除後でも同じノートを指す)
+        intent.putExtra("NOTE_ID", item.id);
+        intent.putExtra("ACTIVITY_TITLE", "微分積分");
+        startActivity(intent);
     }
 
-    private Bitmap decodeBase64ToBitmap(String base64, int maxSize) {
-        try {
-            byte[] bytes = Base64.decode(base64, Base64.DEFAULT);
-            Bitmap raw = BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
-            if (raw == null) return null;
-            return scaleBitmap(raw, maxSize);
-        } catch (Exception e) {
-            e.printStackTrace();
-            return null;
-        }
+    /**
+     * 追加後リセット -> ImageButton に何も設定せず、hint復活
+     */
+    private void clearInputFields() {
+        selectedBitmap = null;
+        selectedImageKey = null;
+        imageButton.setImageDrawable(null);
+        tvImageHint.setVisibility(View.VISIBLE);
+
+        spinner.setSelection(0);
+        isSpinnerSelected = false;
+        selectedSpinnerItem = null;
+
+        editTextField.setText("");
     }
 
+
     @Override
     protected void onResume() {
         super.onResume();
-        // 編集画面から戻ったなどの場合に再描画
-        itemList = loadItemListFromPrefs();
-        reloadDynamicViews(itemList);
+        MemoryTelemetry.record(this, "Calculus");
+        // 編集画面から戻ったなどの場合、前回の描画以降に変更された分だけ反映 (変更が無ければ何もしない)
+        if (pager != null) return;   // 全件の読み込み前 (読み込み後に showAllNotes で全体を表示する)
+        long current = notes.getVersion();
+        if (current == renderedVersion) return;
+        notes.applyChangesSince(renderedVersion, itemList);
+        renderedVersion = current;
+        showFiltered();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // 追加されずに終わった取り込み画像を捨てる
+        discardSelectedImage();
     }
-}
+}
\ No newline at end of file
@@ -0,0 +1,94 @@
+package es.exsample;
+
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Bundle;
+import android.widget.TextView;
+import android.widget.Toast;
+import androidx.annotation.Nullable;
+import androidx.appcompat.app.AppCompatActivity;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 診断情報画面 (ホーム画面から開く)
+ *  - NoteMetrics の所要時間・カウンタ・キャッシュのヒット率を表示する
+ *  - JSON で書き出して不具合の報告に添付できる
+ */
+public class DiagnosticsActivity extends AppCompatActivity {
+
+    private static final int REQUEST_EXPORT = 1;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private TextView tvDiagnostics;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.diagnostics);
+
+        tvDiagnostics = findViewById(R.id.tv_diagnostics);
+        findViewById(R.id.btn_back).setOnClickListener(v -> finish());
+        findViewById(R.id.btn_refresh).setOnClickListener(v -> refresh());
+        findViewById(R.id.btn_export_json).setOnClickListener(v -> {
+            String date = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date());
+            Intent intent = new Intent(Intent.ACTION_CREATE_DOCUMENT)
+                    .addCategory(Intent.CATEGORY_OPENABLE)
+                    .setType("application/json")
+                    .putExtra(Intent.EXTRA_TITLE, "fukusyu_diagnostics_" + date + ".json");
+            startActivityForResult(intent, REQUEST_EXPORT);
+        });
+        findViewById(R.id.btn_reset).setOnClickListener(v -> {
+            NoteMetrics.reset();
+            refresh();
+        });
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        refresh();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        executor.shutdown();
+    }
+
+    private void refresh() {
+        tvDiagnostics.setText(NoteMetrics.summary(this));
+    }
+
+    @Override
+    protected void onActivityResult(int requestCode, int resultCode, @Nullable Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (requestCode != REQUEST_EXPORT || resultCode != RESULT_OK || data == null || data.getData() == null) return;
+        Uri uri = data.getData();
+        // 書き込みはバックグラウンドで (結果だけ UI スレッドで知らせる)
+        executor.execute(() -> {
+            boolean ok;
+            try (OutputStream out = getContentResolver().openOutputStream(uri, "wt")) {
+                if (out == null) throw new IOException("cannot open " + uri);
+                Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+                NoteMetrics.writeJson(getApplicationContext(), writer);
+                writer.flush();
+                ok = true;
+            } catch (IOException e) {
+                e.printStackTrace();
+                ok = false;
+            }
+            String message = ok ? "診断情報を書き出しました" : "書き出しに失敗しました";
+            runOnUiThread(() -> Toast.makeText(getApplicationContext(), message, Toast.LENGTH_SHORT).show());
+        });
+    }
+}
@@ -0,0 +1,157 @@
+package es.exsample;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.DisplayMetrics;
+import android.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 拡大表示用の画面サイズの画像の先読み
+ *  - 一覧の行が押された (指が触れた) 時点や、スクロールが止まってしばらく表示されている行の分を
+ *    バックグラウンドでデコードしておき、拡大表示画面はそれを最初から下絵に使う
+ *    (サムネイルを引き伸ばした粗い表示を挟まず、全体表示のうちはタイルのデコードも要らない)
+ *  - 大きさは画面に収まる大きさ (全体表示したときにちょうど鮮明になる)
+ *  - デコード済みの画像は imageKey をキーに LRU キャッシュ (MemoryTelemetry.budgetBytes の 1/4 まで、
+ *    最大 MAX_ENTRIES 枚)。
+ *    キャッシュから外れた画像は拡大表示画面がまだ使っているかもしれないので BitmapPool には戻さない
+ *  - 押された行の分を優先し、まだ始まっていない先読みは取り消す
+ *  - prefetch / retain / peek / request は UI スレッドから呼ぶこと
+ */
+public class ExpansionPrefetcher {
+
+    private static final int MAX_ENTRIES = 4;
+
+    private static ExpansionPrefetcher instance;
+
+    public static synchronized ExpansionPrefetcher getInstance(Context context) {
+        if (instance == null) {
+            Context app = context.getApplicationContext();
+            DisplayMetrics dm = app.getResources().getDisplayMetrics();
+            long maxBytes = Math.min(MemoryTelemetry.budgetBytes(app) / 4,
+                    MAX_ENTRIES * 4L * dm.widthPixels * dm.heightPixels);
+            instance = new ExpansionPrefetcher(new NoteImageStore(app), dm.widthPixels, dm.heightPixels, maxBytes);
+        }
+        return instance;
+    }
+
+    /** 先読みが終わったときの通知 (UI スレッド) */
+    public interface Listener {
+        void onPrefetched(Bitmap bitmap);
+    }
+
+    private final NoteImageStore store;
+    private final int width, height;
+    private final LruCache<String, Bitmap> cache;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Map<String, Future<?>> pending = new HashMap<>();
+    private final Map<String, Listener> waiting = new HashMap<>();
+
+    private ExpansionPrefetcher(NoteImageStore store, int width, int height, long maxBytes) {
+        this.store = store;
+        this.width = width;
+        this.height = height;
+        // KB単位
+        cache = new LruCache<String, Bitmap>((int) (maxBytes / 1024)) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount() / 1024;
+            }
+        };
+    }
+
+    /** 一覧に表示し続けている行の分を先読みする (既にあれば何もしない) */
+    public void prefetch(String imageKey) {
+        if (imageKey == null || cache.get(imageKey) != null || pending.containsKey(imageKey)) return;
+        NoteMetrics.count(NoteMetrics.PREFETCH_ISSUED, 1);
+        pending.put(imageKey, executor.submit(() -> {
+            Bitmap bmp = store.decode(imageKey, width, height);
+            mainHandler.post(() -> deliver(imageKey, bmp));
+        }));
+    }
+
+    /** 押された行の分を先読みする。まだ始まっていない他の先読みは取り消して先に回す */
+    public void prefetchNow(String imageKey) {
+        if (imageKey == null || cache.get(imageKey) != null) return;
+        Future<?> own = pending.get(imageKey);
+        if (own != null && !own.cancel(false)) return;   // もうデコード中
+        pending.remove(imageKey);
+        for (Map.Entry<String, Future<?>> e : new ArrayList<>(pending.entrySet())) {
+            if (!waiting.containsKey(e.getKey()) && e.getValue().cancel(false)) {
+                pending.remove(e.getKey());
+            }
+        }
+        prefetch(imageKey);
+    }
+
+    /** keys 以外のまだ始まっていない先読みを取り消す (一覧から見えなくなった行の分) */
+    public void retain(Collection<String> keys) {
+        for (Map.Entry<String, Future<?>> e : new ArrayList<>(pending.entrySet())) {
+            if (!keys.contains(e.getKey()) && !waiting.containsKey(e.getKey()) && e.getValue().cancel(false)) {
+                pending.remove(e.getKey());
+            }
+        }
+    }
+
+    /** 先読み済みの画像 (無ければ null) */
+    public Bitmap peek(String imageKey) {
+        return imageKey != null ? cache.get(imageKey) : null;
+    }
+
+    /**
+     * 先読みが済んだら listener に渡す (済んでいれば すぐに呼ぶ。始まっていなければ始める)
+     *  - 同じ imageKey を待てるのは1つだけ。画面を閉じるときは cancelRequest で外す
+     */
+    public void request(String imageKey, Listener listener) {
+        Bitmap hit = peek(imageKey);
+        if (hit != null) {
+            listener.onPrefetched(hit);
+            return;
+        }
+        if (imageKey == null) return;
+        waiting.put(imageKey, listener);
+        prefetchNow(imageKey);
+    }
+
+    public void cancelRequest(String imageKey, Listener listener) {
+        if (imageKey != null && waiting.get(imageKey) == listener) {
+            waiting.remove(imageKey);
+        }
+    }
+
+    /** onTrimMemory の段階 (BitmapPool.trimTier) に応じてキャッシュを減らす */
+    public void trim(int tier) {
+        if (tier >= BitmapPool.TIER_CRITICAL) {
+            cache.evictAll();
+        } else if (tier >= BitmapPool.TIER_LOW) {
+            cache.trimToSize(cache.maxSize() / 2);
+        }
+    }
+
+    public long cachedBytes() {
+        return cache.size() * 1024L;
+    }
+
+    private void deliver(String imageKey, Bitmap bmp) {
+        pending.remove(imageKey);
+        if (bmp == null) {
+            waiting.remove(imageKey);
+            return;
+        }
+        cache.put(imageKey, bmp);
+        Listener listener = waiting.remove(imageKey);
+        if (listener != null) {
+            listener.onPrefetched(bmp);
+        }
+    }
+}
@@ -34,5 +34,9 @@ public class FukusyuKun extends AppCompatActivity {
                 startActivity(intent);
             }
         });
+
+        // 診断情報ボタン
+        findViewById(R.id.btn_diagnostics).setOnClickListener(v ->
+                startActivity(new Intent(FukusyuKun.this, DiagnosticsActivity.class)));
     }
 }
@@ -0,0 +1,46 @@
+package es.exsample;
+
+import android.app.Application;
+
+/**
+ * アプリ全体で共有するオブジェクトを持つ Application
+ *  - NoteStore (科目ごとのノートのメモリ上のモデル) はここで1つだけ作る
+ *    ホーム画面の表示を待たせないよう、作成 (ファイル・DB の準備) と読み込みはバックグラウンドで始める
+ *  - onTrimMemory で画像のキャッシュを段階的に減らす (拡大表示のタイルは TiledImageView が自分で減らす)
+ */
+public class FukusyuKunApp extends Application {
+
+    private NoteStore noteStore;   // getNoteStore で初めて作る
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        // 一覧を開く前にバックグラウンドで作成・読み込みしておく
+        new Thread(() -> getNoteStore().preloadInBackground(), "NoteStoreInit").start();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        int tier = BitmapPool.trimTier(level);
+        if (tier == BitmapPool.TIER_NONE) return;
+        BitmapPool.getInstance(this).trim(tier);
+        ThumbnailLoader.getInstance(this).trim(tier);
+        ExpansionPrefetcher.getInstance(this).trim(tier);
+        MemoryTelemetry.record(this, "onTrimMemory(" + level + ")");
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
+    /** 作成前に呼ばれたら (バックグラウンドの作成より先に一覧を開いたなど) ここで作る */
+    public synchronized NoteStore getNoteStore() {
+        if (noteStore == null) {
+            noteStore = new NoteStore(this);
+        }
+        return noteStore;
+    }
+}
@@ -0,0 +1,105 @@
+package es.exsample;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * ノート画像のエンコード方針
+ *  - 写真 (教科書を撮影したものなど) は非可逆 (WebP / JPEG) で目標サイズに収まる品質を探す
+ *  - 線画・スクリーンショット (色数が少ない) と透過ありの画像は PNG のまま可逆で保存
+ */
+public class ImageEncodePolicy {
+
+    // 1枚あたりの目標サイズ (既定)
+    public static final int DEFAULT_TARGET_BYTES = 300 * 1024;
+
+    private static final int START_QUALITY = 90;
+    private static final int MIN_QUALITY = 50;
+    private static final int QUALITY_STEP = 10;
+
+    // 間引いた画素の色数がこれ未満なら線画とみなす
+    private static final int LINE_ART_MAX_COLORS = 96;
+    private static final int SAMPLE_GRID = 64;
+
+    public static class Encoded {
+        public final byte[] bytes;
+        public final Bitmap.CompressFormat format;
+        public final int quality;
+        Encoded(byte[] bytes, Bitmap.CompressFormat format, int quality) {
+            this.bytes = bytes;
+            this.format = format;
+            this.quality = quality;
+        }
+        public boolean isLossless() {
+            return format == Bitmap.CompressFormat.PNG;
+        }
+    }
+
+    private final int targetBytes;
+
+    public ImageEncodePolicy() {
+        this(DEFAULT_TARGET_BYTES);
+    }
+
+    public ImageEncodePolicy(int targetBytes) {
+        this.targetBytes = targetBytes;
+    }
+
+    public Encoded encode(Bitmap bmp) {
+        try (NoteMetrics.Section ignored = NoteMetrics.begin(NoteMetrics.IMAGE_ENCODE)) {
+            if (isLossless(bmp)) {
+                return new Encoded(compress(bmp, Bitmap.CompressFormat.PNG, 100), Bitmap.CompressFormat.PNG, 100);
+            }
+            Bitmap.CompressFormat format = lossyFormat();
+            int quality = START_QUALITY;
+            byte[] bytes = compress(bmp, format, quality);
+            // 目標サイズに収まるまで品質を下げる (下限あり)
+            while (bytes.length > targetBytes && quality - QUALITY_STEP >= MIN_QUALITY) {
+                quality -= QUALITY_STEP;
+                bytes = compress(bmp, format, quality);
+            }
+            return new Encoded(bytes, format, quality);
+        }
+    }
+
+    /** PNG のまま可逆で保存する画像か (透過あり・線画) */
+    public static boolean isLossless(Bitmap bmp) {
+        return bmp.hasAlpha() || looksLikeLineArt(bmp);
+    }
+
+    @SuppressWarnings("deprecation")
+    static Bitmap.CompressFormat lossyFormat() {
+        // API30 未満の WEBP は品質指定どおりにならない端末があるので JPEG
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.R
+                ? Bitmap.CompressFormat.WEBP_LOSSY
+                : Bitmap.CompressFormat.JPEG;
+    }
+
+    /**
+     * 格子状に間引いた画素の色数 (各チャンネル上位4bit) で写真か線画かを判定
+     */
+    static boolean looksLikeLineArt(Bitmap bmp) {
+        int w = bmp.getWidth();
+        int h = bmp.getHeight();
+        int stepX = Math.max(1, w / SAMPLE_GRID);
+        int stepY = Math.max(1, h / SAMPLE_GRID);
+        Set<Integer> colors = new HashSet<>();
+        for (int y = 0; y < h; y += stepY) {
+            for (int x = 0; x < w; x += stepX) {
+                colors.add(bmp.getPixel(x, y) & 0xF0F0F0);
+                if (colors.size() >= LINE_ART_MAX_COLORS) return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] compress(Bitmap bmp, Bitmap.CompressFormat format, int quality) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        bmp.compress(format, quality, baos);
+        return baos.toByteArray();
+    }
+}
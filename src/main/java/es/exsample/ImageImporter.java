@@ -0,0 +1,332 @@
+package es.exsample;
+
+import android.content.ClipData;
+import android.content.Context;
+import android.content.Intent;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import androidx.annotation.NonNull;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleEventObserver;
+import androidx.lifecycle.LifecycleOwner;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * ギャラリー画像の取り込み (デコード→縮小→エンコード→保存) をバックグラウンドで行う
+ *  - 進捗と結果は UI スレッドのコールバックで返す
+ *  - Activity が破棄されたら取り込みを中止し、コールバックも呼ばない
+ *  - 取り込んだ画像は NoteImageStore に保存済みのキーで返すので、保存ボタンではキーを使うだけ
+ *  - エンコード形式と品質は ImageEncodePolicy が決める
+ *  - 複数枚の一括取り込み (startBulk) は CPU コア数だけ並列に1枚ずつ処理する
+ *  - 保存済みの画像の読み込み (loadStored、編集画面の既存画像) も取り込みと同じスレッドで行う
+ */
+public class ImageImporter implements LifecycleEventObserver {
+
+    public interface Callback {
+        void onProgress(int percent);
+        void onImported(Bitmap preview, String imageKey);
+        void onFailed();
+    }
+
+    public interface StoredCallback {
+        /** 読み込んだ画像 (読めなければ null) */
+        void onLoaded(Bitmap bmp);
+    }
+
+    public interface BulkCallback {
+        /** 1枚終わるごと (done は失敗した分も含む) */
+        void onProgress(int done, int failed, int total);
+        /** 全部終わった。取り込めた画像のキー (選んだ順、失敗した分は除く) */
+        void onFinished(List<String> imageKeys, int failed);
+    }
+
+    // 取り込みは画面をまたいで1本ずつ
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+    // 一括取り込みはコア数まで並列に (デコード中の画像もスレッド数までしかメモリに載らない)
+    private static final ExecutorService bulkPool =
+            Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors()));
+
+    private final Context context;
+    private final NoteStore noteStore;
+    private final ImageEncodePolicy encodePolicy = new ImageEncodePolicy();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private Future<?> running;
+    private Callback callback;   // 現在有効なコールバック (取り消し後は null)
+    private BulkJob bulkJob;     // 実行中の一括取り込み (取り消し後は null)
+    private StoredCallback storedCallback;   // 読み込み中の保存済み画像のコールバック (取り消し後は null)
+
+    public ImageImporter(AppCompatActivity activity, NoteStore noteStore) {
+        this.context = activity.getApplicationContext();
+        this.noteStore = noteStore;
+        activity.getLifecycle().addObserver(this);
+    }
+
+    public void start(Uri uri, int maxSize, Callback cb) {
+        cancel();
+        // 新しい画像を選んだので、読み込み中の既存画像はもう表示しない
+        storedCallback = null;
+        callback = cb;
+        running = executor.submit(() -> run(uri, maxSize, cb));
+    }
+
+    /**
+     * 保存済みの画像を長辺 maxSize 以下でデコードして UI スレッドで返す
+     *  - 結果が届く前に start が呼ばれた / Activity が破棄されたら、結果は BitmapPool に戻してコールバックは呼ばない
+     */
+    public void loadStored(String imageKey, int maxSize, StoredCallback cb) {
+        storedCallback = cb;
+        executor.submit(() -> {
+            Bitmap bmp = noteStore.getImageStore().decode(imageKey, maxSize);
+            mainHandler.post(() -> {
+                if (storedCallback != cb) {
+                    BitmapPool.getInstance(context).put(bmp);
+                    return;
+                }
+                storedCallback = null;
+                cb.onLoaded(bmp);
+            });
+        });
+    }
+
+    /**
+     * 複数枚をまとめて取り込む。1枚ずつデコード→縮小→エンコード→サムネイル→保存
+     *  - 進捗は1枚ごとに、キーは全部終わってから選んだ順で返す (ノートの追加は呼び出し側でまとめて)
+     */
+    public void startBulk(List<Uri> uris, int maxSize, BulkCallback cb) {
+        cancelBulk();
+        BulkJob job = new BulkJob(uris.size(), cb);
+        bulkJob = job;
+        for (int i = 0; i < uris.size(); i++) {
+            int index = i;
+            Uri uri = uris.get(i);
+            bulkPool.execute(() -> job.importOne(index, uri, maxSize));
+        }
+    }
+
+    /**
+     * ギャラリーを開く Intent (複数選択可)
+     *  - ACTION_PICK は1枚しか選べないので ACTION_GET_CONTENT
+     */
+    public static Intent newPickIntent() {
+        Intent intent = new Intent(Intent.ACTION_GET_CONTENT);
+        intent.setType("image/*");
+        intent.putExtra(Intent.EXTRA_ALLOW_MULTIPLE, true);
+        return intent;
+    }
+
+    /** newPickIntent の結果から選ばれた画像の URI を選んだ順に取り出す */
+    public static List<Uri> pickedUris(Intent data) {
+        List<Uri> uris = new ArrayList<>();
+        ClipData clip = data.getClipData();
+        if (clip != null) {
+            for (int i = 0; i < clip.getItemCount(); i++) {
+                Uri uri = clip.getItemAt(i).getUri();
+                if (uri != null) uris.add(uri);
+            }
+        } else if (data.getData() != null) {
+            uris.add(data.getData());
+        }
+        return uris;
+    }
+
+    public boolean isRunning() {
+        return callback != null || bulkJob != null;
+    }
+
+    /** 一括取り込みを止める (取り込み済みの画像は捨てる) */
+    public void cancelBulk() {
+        if (bulkJob != null) {
+            bulkJob.cancelled = true;
+            bulkJob = null;
+        }
+    }
+
+    public void cancel() {
+        if (running != null) {
+            running.cancel(true);
+            running = null;
+        }
+        callback = null;
+    }
+
+    @Override
+    public void onStateChanged(@NonNull LifecycleOwner source, @NonNull Lifecycle.Event event) {
+        if (event == Lifecycle.Event.ON_DESTROY) {
+            cancel();
+            storedCallback = null;
+            cancelBulk();
+            source.getLifecycle().removeObserver(this);
+        }
+    }
+
+    // ===== ここからワーカースレッド =====
+    private void run(Uri uri, int maxSize, Callback cb) {
+        try {
+            postProgress(cb, 0);
+            Bitmap bmp = decodeUriToBitmap(uri, maxSize);
+            if (bmp == null) {
+                postFailed(cb);
+                return;
+            }
+            if (Thread.interrupted()) return;
+            postProgress(cb, 50);
+
+            ImageEncodePolicy.Encoded encoded = encodePolicy.encode(bmp);
+            if (Thread.interrupted()) return;
+            postProgress(cb, 80);
+
+            NoteImageStore store = noteStore.getImageStore();
+            String key = store.put(encoded.bytes);
+            // 一覧用の小さいサムネイルも取り込み時に作っておく
+            store.putThumbnail(key, bmp);
+            postProgress(cb, 100);
+
+            mainHandler.post(() -> {
+                if (callback == cb) {
+                    callback = null;
+                    running = null;
+                    cb.onImported(bmp, key);
+                } else {
+                    // 取り消し済み: どのノートにも使われていなければ捨てる
+                    noteStore.releaseImageIfUnused(key);
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            // 権限切れの URI (SecurityException) や読めない形式など
+            e.printStackTrace();
+            postFailed(cb);
+        }
+    }
+
+    /**
+     * 一括取り込み1回分
+     *  - 各ワーカーは自分の位置にキーを書くだけ。数えるのと結果を返すのは UI スレッド
+     *  - 取り消されたら残りは処理せず、最後の1枚が終わった時点で取り込み済みの画像を捨てる
+     */
+    private class BulkJob {
+        final BulkCallback cb;
+        final String[] keys;
+        volatile boolean cancelled = false;
+        // 以下は UI スレッドだけが触る
+        int done = 0;
+        int failed = 0;
+
+        BulkJob(int total, BulkCallback cb) {
+            this.cb = cb;
+            this.keys = new String[total];
+        }
+
+        // ワーカースレッド
+        void importOne(int index, Uri uri, int maxSize) {
+            String key = null;
+            if (!cancelled) {
+                try {
+                    Bitmap bmp = decodeUriToBitmap(uri, maxSize);
+                    if (bmp != null && !cancelled) {
+                        ImageEncodePolicy.Encoded encoded = encodePolicy.encode(bmp);
+                        NoteImageStore store = noteStore.getImageStore();
+                        key = store.put(encoded.bytes);
+                        store.putThumbnail(key, bmp);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    // 1枚失敗しても残りは続ける (読めない形式や権限切れの URI など)
+                    e.printStackTrace();
+                    key = null;
+                }
+            }
+            String imported = key;
+            mainHandler.post(() -> onItemDone(index, imported));
+        }
+
+        // UI スレッド
+        private void onItemDone(int index, String key) {
+            keys[index] = key;
+            done++;
+            if (key == null) failed++;
+            if (bulkJob == this) {
+                cb.onProgress(done, failed, keys.length);
+            }
+            if (done < keys.length) return;
+
+            List<String> imported = new ArrayList<>();
+            for (String k : keys) {
+                if (k != null) imported.add(k);
+            }
+            if (bulkJob == this) {
+                bulkJob = null;
+                cb.onFinished(imported, failed);
+            } else {
+                // 取り消し済み: どのノートにも使われていなければ捨てる
+                for (String k : imported) {
+                    noteStore.releaseImageIfUnused(k);
+                }
+            }
+        }
+    }
+
+    private void postProgress(Callback cb, int percent) {
+        post(cb, () -> cb.onProgress(percent));
+    }
+
+    private void post(Callback cb, Runnable r) {
+        mainHandler.post(() -> {
+            if (callback != cb) return;
+            r.run();
+        });
+    }
+
+    // 失敗を通知して終わらせる (isRunning を false に戻す)
+    private void postFailed(Callback cb) {
+        mainHandler.post(() -> {
+            if (callback != cb) return;
+            callback = null;
+            running = null;
+            cb.onFailed();
+        });
+    }
+
+    private Bitmap decodeUriToBitmap(Uri uri, int maxSize) throws IOException {
+        try (NoteMetrics.Section ignored = NoteMetrics.begin(NoteMetrics.IMAGE_DECODE)) {
+            BitmapFactory.Options opts = new BitmapFactory.Options();
+            opts.inJustDecodeBounds = true;
+            InputStream in = context.getContentResolver().openInputStream(uri);
+            if (in == null) return null;
+            try {
+                BitmapFactory.decodeStream(in, null, opts);
+            } finally {
+                in.close();
+            }
+
+            int inSampleSize = 1;
+            while (opts.outWidth / (inSampleSize * 2) >= maxSize
+                    || opts.outHeight / (inSampleSize * 2) >= maxSize) {
+                inSampleSize *= 2;
+            }
+            opts.inSampleSize = inSampleSize;
+            opts.inJustDecodeBounds = false;
+
+            Bitmap sampled;
+            in = context.getContentResolver().openInputStream(uri);
+            if (in == null) return null;
+            try {
+                sampled = BitmapFactory.decodeStream(in, null, opts);
+            } finally {
+                in.close();
+            }
+            if (sampled == null) return null;
+            return NoteImageStore.scaleBitmap(sampled, maxSize);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package es.exsample;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.widget.Toast;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 保存済みの画像 (以前は全て PNG 100%) を ImageEncodePolicy で再エンコードして容量を減らす
+ *  - 写真と判定され、小さくなるものだけを置き換える (線画・透過ありはエンコードせずに PNG のまま)
+ *  - ノートの画像キーは新しいキーに付け替え、古いファイルは削除する
+ *  - PNG のまま残した画像のキーは CHECKED_FILE に記録し、次回からはデコードしない
+ *    (キーは内容のハッシュなので、同じキーの画像の判定は変わらない)
+ *  - プロセスごとに1回、バックグラウンドで実行
+ */
+public class ImageReencodeJob {
+
+    private static final String TAG = "ImageReencodeJob";
+    private static final byte[] PNG_MAGIC = {(byte) 0x89, 'P', 'N', 'G'};
+    // PNG のまま残すと決めた画像のキー (1行に1つ)
+    static final String CHECKED_FILE = "image_reencode_checked";
+
+    public static class Report {
+        public int checked;
+        public int reencoded;
+        public long bytesBefore;
+        public long bytesAfter;
+        public long bytesSaved() {
+            return bytesBefore - bytesAfter;
+        }
+    }
+
+    private static boolean started = false;
+    private static Report lastReport;
+
+    public static synchronized void startOnce(Context context) {
+        if (started) return;
+        started = true;
+        Context app = context.getApplicationContext();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.submit(() -> {
+            Report report = new ImageReencodeJob(app).run();
+            synchronized (ImageReencodeJob.class) {
+                lastReport = report;
+            }
+            Log.i(TAG, "checked=" + report.checked + " reencoded=" + report.reencoded
+                    + " saved=" + report.bytesSaved() + " bytes");
+            if (report.bytesSaved() > 0) {
+                new Handler(Looper.getMainLooper()).post(() ->
+                        Toast.makeText(app, "画像を圧縮しました (" + report.bytesSaved() / 1024 + " KB 削減)",
+                                Toast.LENGTH_SHORT).show());
+            }
+        });
+        executor.shutdown();
+    }
+
+    /** 直近の実行結果 (未実行なら null) */
+    public static synchronized Report getLastReport() {
+        return lastReport;
+    }
+
+    private final NoteStore noteStore;
+    private final NoteImageStore store;
+    private final ImageEncodePolicy policy = new ImageEncodePolicy();
+    private final File checkedFile;
+
+    ImageReencodeJob(Context context) {
+        noteStore = NoteStore.get(context);
+        store = noteStore.getImageStore();
+        checkedFile = new File(context.getFilesDir(), CHECKED_FILE);
+    }
+
+    Report run() {
+        Report report = new Report();
+        Set<String> checked = readChecked();
+        for (String key : noteStore.loadAllImageKeys()) {
+            if (checked.contains(key)) continue;
+            File file = store.fileFor(key);
+            if (!file.exists() || !isPng(file)) continue;
+            report.checked++;
+
+            Bitmap bmp = BitmapFactory.decodeFile(file.getPath());
+            if (bmp == null) continue;
+            // 線画・透過ありは PNG のまま (捨てるだけの PNG をエンコードしない)
+            if (ImageEncodePolicy.isLossless(bmp)) {
+                markChecked(key, checked);
+                continue;
+            }
+            ImageEncodePolicy.Encoded encoded = policy.encode(bmp);
+            if (encoded.isLossless() || encoded.bytes.length >= file.length()) {
+                markChecked(key, checked);
+                continue;
+            }
+
+            try {
+                String newKey = store.put(encoded.bytes);
+                store.moveThumbnail(key, newKey);
+                noteStore.replaceImageKey(key, newKey);
+                report.reencoded++;
+                report.bytesBefore += file.length();
+                report.bytesAfter += encoded.bytes.length;
+                // キーの付け替えが保存されてから消える (NoteStore の書き込みスレッドで順番に実行)
+                noteStore.releaseImageIfUnused(key);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return report;
+    }
+
+    private Set<String> readChecked() {
+        Set<String> keys = new HashSet<>();
+        if (!checkedFile.exists()) return keys;
+        try (BufferedReader in = new BufferedReader(new FileReader(checkedFile))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (!line.isEmpty()) keys.add(line);
+            }
+        } catch (IOException e) {
+            // 読めなければ最初から調べ直すだけ
+            e.printStackTrace();
+        }
+        return keys;
+    }
+
+    // 途中で終了しても調べた分は残るよう、1件ずつ追記する
+    private void markChecked(String key, Set<String> checked) {
+        if (!checked.add(key)) return;
+        try (Writer out = new FileWriter(checkedFile, true)) {
+            out.write(key);
+            out.write('\n');
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static boolean isPng(File file) {
+        byte[] head = new byte[PNG_MAGIC.length];
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                if (in.read(head) != head.length) return false;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        for (int i = 0; i < head.length; i++) {
+            if (head[i] != PNG_MAGIC[i]) return false;
+        }
+        return true;
+    }
+}
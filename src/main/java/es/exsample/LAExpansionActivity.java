@@ -2,48 +2,40 @@ package es.exsample;
 
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.SharedPreferences;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.os.Bundle;
-import android.util.Base64;
+import android.os.SystemClock;
 import android.widget.*;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 
-import java.util.ArrayList;
-import java.util.List;
-
 /**
  * 拡大表示画面 (線形代数)。
- * - 画質向上のため、Base64→Bitmapで maxSize をより大きく設定 (例: 4000)
+ * - 画像は TiledImageView で表示 (全体はデコードせず、表示範囲のタイルだけを倍率に合わせてデコード)
+ * - 一覧で先読み (ExpansionPrefetcher) 済みなら、最初から画面サイズの鮮明な画像を表示
  * - 他の機能 (編集/削除 ボタンなど) は従来どおり
  */
 public class LAExpansionActivity extends AppCompatActivity {
 
-    private static final String ITEM_DELIMITER = "@@@";
-    private static final String FIELD_DELIMITER = "###";
-    private static final String PREF_NAME = "LinearAlgebraPrefs";
-    private static final String KEY_ITEM_LIST = "LA_ITEM_LIST";
-
-    private int itemIndex = -1;
+    private long noteId = -1;
     private String activityTitle = "拡大表示";
 
-    private ImageView imgExpanded;
+    private TiledImageView imgExpanded;
+    private ExpansionPrefetcher.Listener sharpListener;
     private TextView tvSpinnerTitle;
     private TextView tvComment;
     private TextView tvExpansionTitle;
     private Button btnClose, btnEdit, btnDelete;
 
-    private List<LinearAlgebraActivity.LAItem> itemList = new ArrayList<>();
+    private NoteStore noteStore;
+    private NoteStore.Subject<LinearAlgebraActivity.LAItem> notes;
     private LinearAlgebraActivity.LAItem currentItem;
 
-    // 画質向上 (大きめ)
-    private static final int MAX_EXPANSION_SIZE = 4000;
-
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        // 画面の作成にかかった時間 (診断情報画面で確認できる)
+        NoteMetrics.Section created = NoteMetrics.begin("LAExpansion.onCreate");
         setContentView(R.layout.la_expansion);
 
         tvExpansionTitle = findViewById(R.id.tv_expansion_title);
@@ -56,34 +48,25 @@ public class LAExpansionActivity extends AppCompatActivity {
         btnDelete = findViewById(R.id.btn_delete);
 
         // インテント
-        itemIndex = getIntent().getIntExtra("INDEX", -1);
+        noteId = getIntent().getLongExtra("NOTE_ID", -1);
         activityTitle = getIntent().getStringExtra("ACTIVITY_TITLE");
         if (activityTitle == null) {
             activityTitle = "拡大表示";
         }
         tvExpansionTitle.setText(activityTitle);
 
-        // itemList読み込み
-        itemList = loadItemListFromPrefs();
-        if (itemIndex >= 0 && itemIndex < itemList.size()) {
-            currentItem = itemList.get(itemIndex);
-        }
+        // 共有のノート置き場から取得 (一覧で読み込み済みなので再読み込みしない)
+        noteStore = NoteStore.get(this);
+        notes = noteStore.linearAlgebra();
 
-        // 画像を大きいサイズで復元 (例: 4000)
-        if (currentItem != null) {
-            Bitmap bigBitmap = decodeBase64ToBitmap(currentItem.base64Image, MAX_EXPANSION_SIZE);
-            if (bigBitmap != null) {
-                imgExpanded.setImageBitmap(bigBitmap);
-            }
-            tvSpinnerTitle.setText(currentItem.spinnerText);
-            tvComment.setText(currentItem.editText);
-        }
+        // 読み込み前 (復元された画面からの起動直後など) なら届いてから表示する
+        notes.get(noteId, this::bindNote);
 
         btnClose.setOnClickListener(v -> finish());
         btnEdit.setOnClickListener(v -> {
             if (currentItem == null) return;
             Intent intent = new Intent(this, LAEditActivity.class);
-            intent.putExtra("INDEX", itemIndex);
+            intent.putExtra("NOTE_ID", noteId);
             intent.putExtra("ACTIVITY_TITLE", activityTitle);
             startActivity(intent);
             finish();
@@ -92,6 +75,51 @@ public class LAExpansionActivity extends AppCompatActivity {
             if (currentItem == null) return;
             showDeleteConfirmationDialog();
         });
+        created.close();
+    }
+
+    // 表示するノート (削除済みなら null)
+    private void bindNote(LinearAlgebraActivity.LAItem item) {
+        if (isDestroyed()) return;
+        currentItem = item;
+        if (currentItem == null) return;
+        // 先読み済みの画面サイズの画像 (無ければサムネイル) を先に表示し、先読みが届いたら差し替える
+        // ズームしたときの鮮明なタイルは表示範囲の分だけ順次デコード
+        NoteImageStore store = noteStore.getImageStore();
+        if (store.contains(currentItem.imageKey)) {
+            ExpansionPrefetcher prefetcher = ExpansionPrefetcher.getInstance(this);
+            Bitmap preview = prefetcher.peek(currentItem.imageKey);
+            NoteMetrics.count(preview != null ? NoteMetrics.PREFETCH_HIT : NoteMetrics.PREFETCH_MISS, 1);
+            if (preview == null) {
+                preview = ThumbnailLoader.getInstance(this).peek(currentItem.id, currentItem.imageKey);
+            }
+            if (preview == null) {
+                preview = store.decodeThumbnail(currentItem.imageKey);
+            }
+            imgExpanded.setImage(store.fileFor(currentItem.imageKey), preview);
+            long openedAt = SystemClock.elapsedRealtimeNanos();
+            sharpListener = bitmap -> {
+                NoteMetrics.record(NoteMetrics.EXPANSION_SHARP, SystemClock.elapsedRealtimeNanos() - openedAt);
+                imgExpanded.setPreview(bitmap);
+            };
+            prefetcher.request(currentItem.imageKey, sharpListener);
+        }
+        tvSpinnerTitle.setText(currentItem.spinnerText);
+        tvComment.setText(currentItem.editText);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        MemoryTelemetry.record(this, "LAExpansion");
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (currentItem != null) {
+            ExpansionPrefetcher.getInstance(this).cancelRequest(currentItem.imageKey, sharpListener);
+        }
     }
 
     private void showDeleteConfirmationDialog() {
@@ -104,81 +132,10 @@ public class LAExpansionActivity extends AppCompatActivity {
     }
 
     private void deleteCurrentItem() {
-        if (itemIndex < 0 || itemIndex >= itemList.size()) {
+        if (currentItem == null) {
             return;
         }
-        itemList.remove(itemIndex);
-        saveItemListToPrefs(itemList);
+        notes.delete(currentItem.id);
         finish();
     }
-
-    // ========================
-    // SharedPreferences
-    // ========================
-    private List<LinearAlgebraActivity.LAItem> loadItemListFromPrefs() {
-        SharedPreferences prefs = getSharedPreferences(PREF_NAME, MODE_PRIVATE);
-        String serialized = prefs.getString(KEY_ITEM_LIST, "");
-        List<LinearAlgebraActivity.LAItem> result = new ArrayList<>();
-        if (serialized.isEmpty()) {
-            return result;
-        }
-        String[] itemChunks = serialized.split(ITEM_DELIMITER);
-        for (String chunk : itemChunks) {
-            if (chunk.trim().isEmpty()) {
-                continue;
-            }
-            String[] fields = chunk.split(FIELD_DELIMITER);
-            if (fields.length < 3) {
-                continue;
-            }
-            result.add(new LinearAlgebraActivity.LAItem(fields[0], fields[1], fields[2]));
-        }
-        return result;
-    }
-
-    private void saveItemListToPrefs(List<LinearAlgebraActivity.LAItem> list) {
-        StringBuilder sb = new StringBuilder();
-        for (LinearAlgebraActivity.LAItem item : list) {
-            sb.append(item.base64Image)
-                    .append(FIELD_DELIMITER)
-                    .append(item.spinnerText)
-                    .append(FIELD_DELIMITER)
-                    .append(item.editText)
-                    .append(ITEM_DELIMITER);
-        }
-        getSharedPreferences(PREF_NAME, MODE_PRIVATE)
-                .edit()
-                .putString(KEY_ITEM_LIST, sb.toString())
-                .apply();
-    }
-
-    // ========================
-    // 画像デコード (高解像度)
-    // ========================
-    private Bitmap decodeBase64ToBitmap(String base64, int maxSize) {
-        try {
-            byte[] bytes = Base64.decode(base64, Base64.DEFAULT);
-            Bitmap rawBitmap = BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
-            if (rawBitmap == null) return null;
-
-            int width = rawBitmap.getWidth();
-            int height = rawBitmap.getHeight();
-            if (width > maxSize || height > maxSize) {
-                float ratio = (float) width / (float) height;
-                if (ratio > 1f) {
-                    width = maxSize;
-                    height = (int)(maxSize / ratio);
-                } else {
-                    height = maxSize;
-                    width = (int)(maxSize * ratio);
-                }
-                return Bitmap.createScaledBitmap(rawBitmap, width, height, true);
-            } else {
-                return rawBitmap;
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
-            return null;
-        }
-    }
 }
@@ -0,0 +1,379 @@
+package es.exsample;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 旧形式 (SharedPreferences の1つの文字列) のノートを1件ずつ読む
+ *  - 形式: 画像(Base64) ### タイトル ### 本文 @@@ 画像 ### ... (区切りのエスケープは無い)
+ *  - 1文字ずつ走査し、文字列全体も1件分の Base64 もメモリに載せない
+ *  - 画像は Base64 を復号しながら ImageSink に書き出す
+ *  - 本文に区切り文字が入っていても読めるよう、本文中の @@@ は
+ *    直後に次の記録の画像 (Base64 が MIN_IMAGE_CHARS 文字以上) が続く場合だけ区切りとみなす
+ *  - 3項目そろわない記録は読み飛ばす。画像の Base64 が壊れていれば画像なし (キー null) にする
+ */
+public class LegacyNoteReader implements Closeable {
+
+    /** 画像1枚ずつの書き込み先 (begin -> write -> commit / abort) */
+    public interface ImageSink {
+        OutputStream begin() throws IOException;
+        /** 書き終えた画像を保存してキーを返す */
+        String commit() throws IOException;
+        /** 書きかけの画像を捨てる */
+        void abort();
+    }
+
+    static final String ITEM_DELIMITER = "@@@";
+    static final String FIELD_DELIMITER = "###";
+    // 本文中の @@@ の後をどこまで先読みして区切りか判定するか
+    static final int MIN_IMAGE_CHARS = 64;
+    private static final int LOOKAHEAD = 256;
+
+    private static final int[] BASE64 = new int[128];
+    static {
+        java.util.Arrays.fill(BASE64, -1);
+        String chars = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+        for (int i = 0; i < chars.length(); i++) {
+            BASE64[chars.charAt(i)] = i;
+        }
+        // android.util.Base64 の URL_SAFE で書かれたものも読めるように
+        BASE64['-'] = 62;
+        BASE64['_'] = 63;
+    }
+
+    private final Reader in;
+    private final ImageSink sink;
+    private final char[] buf = new char[8192];
+    private int pos;
+    private int limit;
+    private boolean eof;
+
+    // 使い回すバッファ (1件ごとに確保しない)
+    private final StringBuilder title = new StringBuilder();
+    private final StringBuilder text = new StringBuilder();
+    private final byte[] decoded = new byte[8192];
+    private int decodedLength;
+    private OutputStream imageOut;
+    private int bitBuffer;
+    private int bitCount;
+    private boolean padded;
+    private boolean imageBroken;
+
+    public LegacyNoteReader(Reader in, ImageSink sink) {
+        this.in = in;
+        this.sink = sink;
+    }
+
+    /**
+     * 次の1件。残りが無ければ null
+     */
+    public <T extends NoteItem> T next(NoteItem.Factory<T> factory) throws IOException {
+        record:
+        while (true) {
+            // 画像
+            resetImage();
+            while (true) {
+                if (ensure(1) == 0) {
+                    abortImage();
+                    return null;
+                }
+                char c = buf[pos];
+                if (c == '#' && startsWith(FIELD_DELIMITER)) {
+                    pos += 3;
+                    break;
+                }
+                if (c == '@' && startsWith(ITEM_DELIMITER)) {
+                    pos += 3;
+                    abortImage();
+                    continue record;
+                }
+                pos++;
+                decodeChar(c);
+            }
+
+            // タイトル
+            title.setLength(0);
+            while (true) {
+                if (ensure(1) == 0) {
+                    abortImage();
+                    return null;
+                }
+                char c = buf[pos];
+                if (c == '#' && startsWith(FIELD_DELIMITER)) {
+                    pos += 3;
+                    break;
+                }
+                if (c == '@' && startsWith(ITEM_DELIMITER)) {
+                    pos += 3;
+                    abortImage();
+                    continue record;
+                }
+                title.append(c);
+                pos++;
+            }
+
+            // 本文 (次の記録の始まりか終端まで)
+            text.setLength(0);
+            while (ensure(1) > 0) {
+                char c = buf[pos];
+                if (c == '@' && startsWith(ITEM_DELIMITER) && isRecordBoundary()) {
+                    pos += 3;
+                    break;
+                }
+                text.append(c);
+                pos++;
+            }
+
+            String key = finishImage();
+            return factory.create(key, title.toString(), text.toString());
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        abortImage();
+        in.close();
+    }
+
+    /**
+     * SharedPreferences の XML ファイルから key の文字列値だけを読む Reader (key が無ければ null)
+     *  - getSharedPreferences は全体をメモリに読み込むので使わない
+     */
+    public static Reader openPrefsString(File xml, String key) throws IOException {
+        Reader r = new BufferedReader(new InputStreamReader(new FileInputStream(xml), StandardCharsets.UTF_8));
+        try {
+            if (PrefsValueReader.skipToValue(r, key)) {
+                return new PrefsValueReader(r);
+            }
+        } catch (IOException e) {
+            r.close();
+            throw e;
+        }
+        r.close();
+        return null;
+    }
+
+    // ---- 画像 ----
+
+    private void resetImage() {
+        imageOut = null;
+        decodedLength = 0;
+        bitBuffer = 0;
+        bitCount = 0;
+        padded = false;
+        imageBroken = false;
+    }
+
+    private void decodeChar(char c) throws IOException {
+        if (imageBroken || c == ' ' || c == '\n' || c == '\r' || c == '\t') return;
+        if (c == '=') {
+            padded = true;
+            return;
+        }
+        int v = c < 128 ? BASE64[c] : -1;
+        if (v < 0 || padded) {
+            imageBroken = true;
+            return;
+        }
+        bitBuffer = (bitBuffer << 6) | v;
+        bitCount += 6;
+        if (bitCount >= 8) {
+            bitCount -= 8;
+            decoded[decodedLength++] = (byte) (bitBuffer >> bitCount);
+            bitBuffer &= (1 << bitCount) - 1;
+            if (decodedLength == decoded.length) {
+                flushDecoded();
+            }
+        }
+    }
+
+    private void flushDecoded() throws IOException {
+        if (decodedLength == 0) return;
+        if (imageOut == null) {
+            imageOut = sink.begin();
+        }
+        imageOut.write(decoded, 0, decodedLength);
+        decodedLength = 0;
+    }
+
+    // 画像を確定してキーを返す (画像なし・壊れていれば null)
+    private String finishImage() throws IOException {
+        if (imageBroken) {
+            abortImage();
+            return null;
+        }
+        flushDecoded();
+        if (imageOut == null) return null;
+        imageOut = null;
+        return sink.commit();
+    }
+
+    private void abortImage() {
+        if (imageOut != null) {
+            imageOut = null;
+            sink.abort();
+        }
+        decodedLength = 0;
+    }
+
+    // ---- 区切りの判定 ----
+
+    /**
+     * pos にある @@@ が記録の区切りか (本文中の @@@ ではないか)
+     *  - 直後が終端 (空白のみ)、または Base64 が MIN_IMAGE_CHARS 文字以上続くなら区切り
+     *  - Base64.DEFAULT が入れるのは改行だけなので、空白・タブを挟んだ英数字 (本文の英文) は画像とみなさない
+     */
+    private boolean isRecordBoundary() throws IOException {
+        int n = ensure(3 + LOOKAHEAD) - 3;
+        int start = pos + 3;
+        int run = 0;
+        boolean blank = false;
+        for (int j = 0; j < n; j++) {
+            char c = buf[start + j];
+            if (c == '#') return false;   // 画像がこんなに短いことは無い (本文中の @@@...###)
+            if (c == '\n' || c == '\r') continue;
+            if (c == ' ' || c == '\t') {
+                blank = true;
+                continue;
+            }
+            if (blank) return false;
+            if (c >= 128 || (BASE64[c] < 0 && c != '=')) return false;
+            if (++run >= MIN_IMAGE_CHARS) return true;
+        }
+        // 先読みの途中で終端に達した: 空白だけなら最後の区切り
+        return n < LOOKAHEAD && run == 0;
+    }
+
+    private boolean startsWith(String s) throws IOException {
+        if (ensure(s.length()) < s.length()) return false;
+        for (int i = 0; i < s.length(); i++) {
+            if (buf[pos + i] != s.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    // pos から n 文字を読めるようにする。読める文字数 (終端なら n 未満) を返す
+    private int ensure(int n) throws IOException {
+        if (limit - pos < n && !eof) {
+            if (pos > 0) {
+                System.arraycopy(buf, pos, buf, 0, limit - pos);
+                limit -= pos;
+                pos = 0;
+            }
+            while (limit < n) {
+                int r = in.read(buf, limit, buf.length - limit);
+                if (r < 0) {
+                    eof = true;
+                    break;
+                }
+                limit += r;
+            }
+        }
+        return Math.min(n, limit - pos);
+    }
+
+    /**
+     * SharedPreferences の XML の <string name="key">...</string> の中身を、
+     * 文字参照を戻しながら読む
+     */
+    static class PrefsValueReader extends Reader {
+
+        private final Reader in;
+        private boolean done;
+        private int pushback = -1;
+
+        PrefsValueReader(Reader in) {
+            this.in = in;
+        }
+
+        // <string name="key"> の直後まで読み進める (空要素 <string name="key" /> なら false)
+        static boolean skipToValue(Reader r, String key) throws IOException {
+            String tag = "<string name=\"" + escape(key) + "\"";
+            int matched = 0;
+            int c;
+            while ((c = r.read()) >= 0) {
+                if (c == tag.charAt(matched)) {
+                    if (++matched == tag.length()) {
+                        // 属性の後は > か />
+                        int next = r.read();
+                        while (next == ' ') next = r.read();
+                        return next == '>';
+                    }
+                } else {
+                    // '<' はタグの先頭にしか無いので、やり直しは先頭からで足りる
+                    matched = c == tag.charAt(0) ? 1 : 0;
+                }
+            }
+            return false;
+        }
+
+        private static String escape(String s) {
+            return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (done) return -1;
+            int n = 0;
+            while (n < len) {
+                int c = pushback >= 0 ? pushback : in.read();
+                pushback = -1;
+                if (c < 0 || c == '<') {
+                    done = true;
+                    break;
+                }
+                if (c == '&') {
+                    int ch = readEntity();
+                    if (ch > 0xFFFF) {
+                        // 補助文字はサロゲートペアで返す
+                        char[] pair = Character.toChars(ch);
+                        cbuf[off + n++] = pair[0];
+                        if (n < len) {
+                            cbuf[off + n++] = pair[1];
+                        } else {
+                            pushback = pair[1];
+                        }
+                        continue;
+                    }
+                    c = ch;
+                }
+                cbuf[off + n++] = (char) c;
+            }
+            return n == 0 && done ? -1 : n;
+        }
+
+        private int readEntity() throws IOException {
+            StringBuilder name = new StringBuilder();
+            int c;
+            while ((c = in.read()) >= 0 && c != ';' && name.length() < 10) {
+                name.append((char) c);
+            }
+            String s = name.toString();
+            switch (s) {
+                case "amp": return '&';
+                case "lt": return '<';
+                case "gt": return '>';
+                case "quot": return '"';
+                case "apos": return '\'';
+            }
+            try {
+                if (s.startsWith("#x")) return Integer.parseInt(s.substring(2), 16);
+                if (s.startsWith("#")) return Integer.parseInt(s.substring(1));
+            } catch (NumberFormatException ignored) {
+            }
+            throw new IOException("bad entity: &" + s);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package es.exsample;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.os.Debug;
+import android.util.Log;
+
+/**
+ * 画像まわりのメモリ使用量の記録 (logcat のタグ "FukusyuMemory")
+ *  - 一覧・編集・拡大表示の各画面の表示時と onTrimMemory のたびに、
+ *    ヒープ (Java / ネイティブ) と画像キャッシュ (サムネイル・拡大表示の先読み・タイル・再利用用) の量を出す
+ *  - 画像キャッシュ全体の上限 (budgetBytes) は端末のメモリクラスから決める (低RAM端末は半分)
+ *  - 上限を超えていたら警告を出し、キャッシュを TIER_LOW まで減らす
+ */
+public final class MemoryTelemetry {
+
+    static final String TAG = "FukusyuMemory";
+
+    private MemoryTelemetry() {
+    }
+
+    /**
+     * 画像キャッシュ全体の上限。内訳はサムネイル 1/4、拡大表示のタイル 1/2、再利用用 1/4
+     * (拡大表示の先読みは最大 1/4。拡大表示中はタイルがほとんど要らないので、その分を当てる)
+     */
+    public static long budgetBytes(Context context) {
+        ActivityManager am = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        long bytes = am.getMemoryClass() * 1024L * 1024L / 4;
+        return am.isLowRamDevice() ? bytes / 2 : bytes;
+    }
+
+    /** 現在の使用量を記録する (where は画面名など) */
+    public static void record(Context context, String where) {
+        Context app = context.getApplicationContext();
+        long budget = budgetBytes(app);
+        ThumbnailLoader thumbs = ThumbnailLoader.getInstance(app);
+        ExpansionPrefetcher prefetcher = ExpansionPrefetcher.getInstance(app);
+        BitmapPool pool = BitmapPool.getInstance(app);
+        long images = thumbs.cachedBytes() + prefetcher.cachedBytes() + TiledImageView.liveTileBytes()
+                + pool.pooledBytes();
+
+        Runtime rt = Runtime.getRuntime();
+        long javaUsed = rt.totalMemory() - rt.freeMemory();
+        long nativeUsed = Debug.getNativeHeapAllocatedSize();   // Bitmap の画素 (API26 以降)
+        String line = where + ": images " + images / 1024 + "KB/" + budget / 1024 + "KB"
+                + " [thumbs " + thumbs.cachedBytes() / 1024 + "KB, prefetch " + prefetcher.cachedBytes() / 1024
+                + "KB, tiles " + TiledImageView.liveTileBytes() / 1024 + "KB, " + pool.stats() + "] java " + javaUsed / 1024 + "KB/" + rt.maxMemory() / 1024
+                + "KB native " + nativeUsed / 1024 + "KB";
+        if (images > budget) {
+            Log.w(TAG, "over budget " + line);
+            thumbs.trim(BitmapPool.TIER_LOW);
+            prefetcher.trim(BitmapPool.TIER_LOW);
+            pool.trim(BitmapPool.TIER_LOW);
+        } else {
+            Log.i(TAG, line);
+        }
+    }
+}
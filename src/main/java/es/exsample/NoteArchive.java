@@ -0,0 +1,249 @@
+package es.exsample;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * 1科目分のノートのバックアップ (zip)
+ *  - images/<キー> : 画像ファイルそのまま (圧縮済みの形式なので無圧縮で格納)
+ *  - manifest.json : ノートの一覧 (タイトル・本文・画像キー)。画像の後、最後に書く
+ *  - 書き出しも読み込みもチャネル間を固定長のバッファで流すだけで、画像1枚分もメモリに載せない
+ *  - 読み込んだ画像は NoteImageStore に保存し直すので、キーは中身の SHA-256 で決め直される
+ */
+public class NoteArchive {
+
+    public interface Progress {
+        void onProgress(long done, long total);
+    }
+
+    static final String MANIFEST = "manifest.json";
+    static final String IMAGE_DIR = "images/";
+    static final int FORMAT_VERSION = 1;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private NoteArchive() {
+    }
+
+    /**
+     * notes を out に書き出す。進捗はノートの件数単位
+     */
+    public static void write(List<? extends NoteItem> notes, String subject, NoteImageStore images,
+                             WritableByteChannel out, Progress progress) throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(out), BUFFER_SIZE));
+        try {
+            // 画像 (同じ画像を使うノートが複数あっても1回だけ)
+            zip.setLevel(Deflater.NO_COMPRESSION);
+            WritableByteChannel zipChannel = Channels.newChannel(zip);
+            Set<String> written = new HashSet<>();
+            int done = 0;
+            for (NoteItem note : notes) {
+                String key = note.imageKey;
+                if (key != null && images.contains(key) && written.add(key)) {
+                    zip.putNextEntry(new ZipEntry(IMAGE_DIR + key));
+                    try (FileChannel in = new FileInputStream(images.fileFor(key)).getChannel()) {
+                        long size = in.size();
+                        long pos = 0;
+                        while (pos < size) {
+                            pos += in.transferTo(pos, size - pos, zipChannel);
+                        }
+                    }
+                    zip.closeEntry();
+                }
+                progress.onProgress(++done, notes.size());
+            }
+
+            // 一覧
+            zip.setLevel(Deflater.DEFAULT_COMPRESSION);
+            zip.putNextEntry(new ZipEntry(MANIFEST));
+            JsonWriter json = new JsonWriter(new OutputStreamWriter(zip, StandardCharsets.UTF_8));
+            json.beginObject();
+            json.name("version").value(FORMAT_VERSION);
+            json.name("subject").value(subject);
+            json.name("notes").beginArray();
+            for (NoteItem note : notes) {
+                json.beginObject();
+                json.name("title").value(note.spinnerText);
+                json.name("text").value(note.editText);
+                json.name("image").value(written.contains(note.imageKey) ? note.imageKey : null);
+                json.endObject();
+            }
+            json.endArray();
+            json.endObject();
+            json.flush();   // close すると zip ごと閉じるので flush だけ
+            zip.closeEntry();
+            zip.finish();
+        } finally {
+            zip.close();
+        }
+    }
+
+    /**
+     * in から読み込んだノート (id は未設定、画像は保存済み)
+     *  - 進捗は読んだバイト数 (total が分からなければ -1)
+     *  - 保存した画像のキーは (途中で失敗しても) stored に足す。使われなかった分は呼び出し側で解放すること
+     */
+    public static <T extends NoteItem> List<T> read(ReadableByteChannel in, long total, NoteImageStore images,
+                                                    NoteItem.Factory<T> factory, Set<String> stored,
+                                                    Progress progress)
+            throws IOException {
+        CountingChannel counting = new CountingChannel(in);
+        ZipInputStream zip = new ZipInputStream(
+                new BufferedInputStream(Channels.newInputStream(counting), BUFFER_SIZE));
+        try {
+            Map<String, String> keys = new HashMap<>();   // zip 内のキー -> 保存し直したキー
+            List<T> notes = null;
+            LegacyNoteReader.ImageSink sink = images.newImageSink();
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                String name = entry.getName();
+                if (name.startsWith(IMAGE_DIR)) {
+                    String key = copyImage(zip, sink);
+                    stored.add(key);
+                    keys.put(name.substring(IMAGE_DIR.length()), key);
+                } else if (MANIFEST.equals(name)) {
+                    notes = readManifest(zip, factory);
+                }
+                progress.onProgress(counting.count, total);
+            }
+            if (notes == null) {
+                throw new IOException(MANIFEST + " がありません");
+            }
+            for (T note : notes) {
+                // 画像が欠けていたら画像なしにする
+                note.imageKey = note.imageKey != null ? keys.get(note.imageKey) : null;
+            }
+            return notes;
+        } finally {
+            zip.close();
+        }
+    }
+
+    private static String copyImage(InputStream zip, LegacyNoteReader.ImageSink sink) throws IOException {
+        OutputStream out = sink.begin();
+        String key = null;
+        try {
+            // zip のエントリの終わりで -1 が返る (チャネルは閉じない)
+            ReadableByteChannel src = Channels.newChannel(zip);
+            WritableByteChannel dst = Channels.newChannel(out);
+            ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+            while (src.read(buf) >= 0) {
+                buf.flip();
+                while (buf.hasRemaining()) {
+                    dst.write(buf);
+                }
+                buf.clear();
+            }
+            key = sink.commit();
+            return key;
+        } finally {
+            // 壊れた zip の展開で RuntimeException が出た場合なども一時ファイルを残さない
+            if (key == null) {
+                sink.abort();
+            }
+        }
+    }
+
+    private static <T extends NoteItem> List<T> readManifest(InputStream zip, NoteItem.Factory<T> factory)
+            throws IOException {
+        List<T> notes = new ArrayList<>();
+        // close すると zip ごと閉じるので JsonReader は閉じない
+        JsonReader json = new JsonReader(new InputStreamReader(zip, StandardCharsets.UTF_8));
+        json.beginObject();
+        while (json.hasNext()) {
+            String field = json.nextName();
+            if ("version".equals(field)) {
+                if (json.nextInt() > FORMAT_VERSION) {
+                    throw new IOException("新しい形式のバックアップは読めません");
+                }
+            } else if ("notes".equals(field)) {
+                json.beginArray();
+                while (json.hasNext()) {
+                    notes.add(readNote(json, factory));
+                }
+                json.endArray();
+            } else {
+                json.skipValue();
+            }
+        }
+        json.endObject();
+        return notes;
+    }
+
+    private static <T extends NoteItem> T readNote(JsonReader json, NoteItem.Factory<T> factory)
+            throws IOException {
+        String title = "";
+        String text = "";
+        String image = null;
+        json.beginObject();
+        while (json.hasNext()) {
+            String field = json.nextName();
+            if (json.peek() == JsonToken.NULL) {
+                json.nextNull();
+                continue;
+            }
+            switch (field) {
+                case "title": title = json.nextString(); break;
+                case "text": text = json.nextString(); break;
+                case "image": image = json.nextString(); break;
+                default: json.skipValue(); break;
+            }
+        }
+        json.endObject();
+        return factory.create(image, title, text);
+    }
+
+    // 読んだバイト数を数える (進捗表示用)
+    private static class CountingChannel implements ReadableByteChannel {
+        private final ReadableByteChannel in;
+        volatile long count = 0;
+
+        CountingChannel(ReadableByteChannel in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            int n = in.read(dst);
+            if (n > 0) count += n;
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return in.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
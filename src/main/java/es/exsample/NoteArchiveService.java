@@ -0,0 +1,230 @@
+package es.exsample;
+
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ServiceInfo;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import androidx.core.app.NotificationCompat;
+import androidx.core.app.NotificationManagerCompat;
+import androidx.core.content.ContextCompat;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 1科目分のノートの書き出し/読み込み (NoteArchive) を行うフォアグラウンドサービス
+ *  - 数百MBあっても画面を閉じても終わるよう、処理中は進捗つきの通知を出しておく
+ *  - 依頼は1本ずつ順番に処理し、全部終わったら止まる
+ *  - 結果は別の通知で知らせる (タップで科目の画面を開く)
+ */
+public class NoteArchiveService extends Service {
+
+    static final String ACTION_EXPORT = "es.exsample.action.EXPORT_NOTES";
+    static final String ACTION_IMPORT = "es.exsample.action.IMPORT_NOTES";
+    static final String EXTRA_SUBJECT = "SUBJECT";
+
+    private static final String CHANNEL_ID = "NOTE_ARCHIVE";
+    private static final int NOTIFICATION_PROGRESS = 1;
+    private static final int NOTIFICATION_RESULT = 2;
+    static final String MIME_TYPE = "application/zip";
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private int lastPercent = -1;   // 通知の更新を1%単位に間引く (ワーカースレッドのみ)
+
+    /** 書き出し先を選ぶ Intent (startActivityForResult 用) */
+    public static Intent newExportIntent(String subject) {
+        String date = new SimpleDateFormat("yyyyMMdd", Locale.US).format(new Date());
+        return new Intent(Intent.ACTION_CREATE_DOCUMENT)
+                .addCategory(Intent.CATEGORY_OPENABLE)
+                .setType(MIME_TYPE)
+                .putExtra(Intent.EXTRA_TITLE, "fukusyu_" + subject + "_" + date + ".zip");
+    }
+
+    /** 読み込むファイルを選ぶ Intent (startActivityForResult 用) */
+    public static Intent newImportIntent() {
+        return new Intent(Intent.ACTION_OPEN_DOCUMENT)
+                .addCategory(Intent.CATEGORY_OPENABLE)
+                .setType(MIME_TYPE);
+    }
+
+    /** 選ばれたファイル uri への書き出し (ACTION_EXPORT) / からの読み込み (ACTION_IMPORT) を始める */
+    public static void start(Context context, String action, String subject, Uri uri) {
+        Intent it = new Intent(context, NoteArchiveService.class)
+                .setAction(action)
+                .setData(uri)
+                .putExtra(EXTRA_SUBJECT, subject)
+                .addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION | Intent.FLAG_GRANT_WRITE_URI_PERMISSION);
+        ContextCompat.startForegroundService(context, it);
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            // 進捗の更新のたびに音が鳴らないよう LOW
+            NotificationChannel channel = new NotificationChannel(CHANNEL_ID, "バックアップ",
+                    NotificationManager.IMPORTANCE_LOW);
+            channel.setDescription("ノートの書き出し・読み込みの進捗");
+            getSystemService(NotificationManager.class).createNotificationChannel(channel);
+        }
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (intent == null || intent.getData() == null) {
+            stopSelf(startId);
+            return START_NOT_STICKY;
+        }
+        boolean export = ACTION_EXPORT.equals(intent.getAction());
+        String title = export ? "ノートを書き出し中" : "ノートを読み込み中";
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            startForeground(NOTIFICATION_PROGRESS, progress(title, 0, true).build(),
+                    ServiceInfo.FOREGROUND_SERVICE_TYPE_DATA_SYNC);
+        } else {
+            startForeground(NOTIFICATION_PROGRESS, progress(title, 0, true).build());
+        }
+        executor.execute(() -> run(intent, export, title, startId));
+        // 途中で強制終了されたらやり直さない (書きかけのファイルは選び直してもらう)
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        executor.shutdownNow();
+    }
+
+    // ===== ここからワーカースレッド =====
+    private void run(Intent intent, boolean export, String title, int startId) {
+        String subject = intent.getStringExtra(EXTRA_SUBJECT);
+        Uri uri = intent.getData();
+        lastPercent = -1;
+        String result;
+        try {
+            if (export) {
+                int count = export(subject, uri, title);
+                result = count + "件のノートを書き出しました";
+            } else {
+                int count = NoteRepository.SUBJECT_CAL.equals(subject)
+                        ? importInto(NoteStore.get(this).calculus(), CalculusActivity.CalItem::new, uri, title)
+                        : importInto(NoteStore.get(this).linearAlgebra(), LinearAlgebraActivity.LAItem::new, uri, title);
+                result = count + "件のノートを読み込みました";
+            }
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            result = (export ? "書き出し" : "読み込み") + "に失敗しました";
+        }
+        notifyResult(subject, result);
+        // 後の依頼が来ていればその分が終わるまで止まらない
+        mainHandler.post(() -> stopSelf(startId));
+    }
+
+    private int export(String subject, Uri uri, String title) throws IOException {
+        NoteStore store = NoteStore.get(this);
+        List<? extends NoteItem> notes = NoteRepository.SUBJECT_CAL.equals(subject)
+                ? store.calculus().getAll() : store.linearAlgebra().getAll();
+        ParcelFileDescriptor pfd = getContentResolver().openFileDescriptor(uri, "wt");
+        if (pfd == null) throw new IOException("cannot open " + uri);
+        try (FileChannel out = new FileOutputStream(pfd.getFileDescriptor()).getChannel()) {
+            NoteArchive.write(notes, subject, store.getImageStore(), out,
+                    (done, total) -> updateProgress(title, done, total));
+        } finally {
+            pfd.close();
+        }
+        return notes.size();
+    }
+
+    private <T extends NoteItem> int importInto(NoteStore.Subject<T> notes, NoteItem.Factory<T> factory,
+                                                Uri uri, String title) throws IOException {
+        ParcelFileDescriptor pfd = getContentResolver().openFileDescriptor(uri, "r");
+        if (pfd == null) throw new IOException("cannot open " + uri);
+        NoteStore store = NoteStore.get(this);
+        Set<String> stored = new HashSet<>();   // この取り込みで保存した画像のキー
+        List<T> imported;
+        try (FileChannel in = new FileInputStream(pfd.getFileDescriptor()).getChannel()) {
+            imported = NoteArchive.read(in, pfd.getStatSize(), store.getImageStore(), factory, stored,
+                    (done, total) -> updateProgress(title, done, total));
+        } catch (IOException | RuntimeException e) {
+            // 壊れた zip など: 保存済みの画像を捨てる (既存のノートと同じ内容の画像は使われているので残る)
+            for (String key : stored) {
+                store.releaseImageIfUnused(key);
+            }
+            throw e;
+        } finally {
+            pfd.close();
+        }
+        // 1つのトランザクションで保存される
+        notes.addAll(imported);
+        // 一覧 (manifest.json) から参照されなかった画像を捨てる
+        for (T note : imported) {
+            stored.remove(note.imageKey);
+        }
+        for (String key : stored) {
+            store.releaseImageIfUnused(key);
+        }
+        return imported.size();
+    }
+
+    private void updateProgress(String title, long done, long total) {
+        int percent = total > 0 ? (int) Math.min(100, done * 100 / total) : 0;
+        if (percent == lastPercent) return;
+        lastPercent = percent;
+        notify(NOTIFICATION_PROGRESS, progress(title, percent, total <= 0));
+    }
+
+    private NotificationCompat.Builder progress(String title, int percent, boolean indeterminate) {
+        return new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setContentTitle(title)
+                .setContentText(indeterminate ? "" : percent + "%")
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setOngoing(true)
+                .setOnlyAlertOnce(true)
+                .setProgress(100, percent, indeterminate);
+    }
+
+    private void notifyResult(String subject, String text) {
+        Class<?> screen = NoteRepository.SUBJECT_CAL.equals(subject)
+                ? CalculusActivity.class : LinearAlgebraActivity.class;
+        Intent it = new Intent(this, screen).addFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP | Intent.FLAG_ACTIVITY_SINGLE_TOP);
+        PendingIntent pi = PendingIntent.getActivity(this, 0, it,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+        notify(NOTIFICATION_RESULT, new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setContentTitle("バックアップ")
+                .setContentText(text)
+                .setContentIntent(pi)
+                .setAutoCancel(true)
+                .setSmallIcon(R.mipmap.ic_launcher));
+    }
+
+    private void notify(int id, NotificationCompat.Builder builder) {
+        // 通知が許可されていなくても処理自体は続ける
+        NotificationManagerCompat nmc = NotificationManagerCompat.from(this);
+        if (!nmc.areNotificationsEnabled()) return;
+        nmc.notify(id, builder.build());
+    }
+}
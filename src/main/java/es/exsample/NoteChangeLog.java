@@ -0,0 +1,77 @@
+package es.exsample;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 科目ごとのノート変更履歴 (プロセス内で共有)
+ *  - 追加/更新/削除のたびにバージョンを1つ進めて記録する
+ *  - 一覧画面は前回描画したバージョン以降の変更だけを反映すればよい
+ *  - 直近 MAX_CHANGES 件だけ保持し、それより古い差分は取れない (全件再読込)
+ */
+public class NoteChangeLog {
+
+    public static final int INSERT = 0;
+    public static final int UPDATE = 1;
+    public static final int DELETE = 2;
+
+    private static final int MAX_CHANGES = 256;
+
+    public static class Change {
+        public final long version;
+        public final int type;
+        public final long noteId;
+        Change(long version, int type, long noteId) {
+            this.version = version;
+            this.type = type;
+            this.noteId = noteId;
+        }
+    }
+
+    private static final Map<String, NoteChangeLog> logs = new HashMap<>();
+
+    public static synchronized NoteChangeLog forSubject(String subject) {
+        NoteChangeLog log = logs.get(subject);
+        if (log == null) {
+            log = new NoteChangeLog();
+            logs.put(subject, log);
+        }
+        return log;
+    }
+
+    private long version = 0;
+    private final ArrayDeque<Change> changes = new ArrayDeque<>();
+
+    private NoteChangeLog() {}
+
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    synchronized void record(int type, long noteId) {
+        version++;
+        changes.addLast(new Change(version, type, noteId));
+        if (changes.size() > MAX_CHANGES) {
+            changes.removeFirst();
+        }
+    }
+
+    /**
+     * sinceVersion より後の変更 (古い順)。履歴が足りなければ null
+     */
+    public synchronized List<Change> changesSince(long sinceVersion) {
+        List<Change> result = new ArrayList<>();
+        if (sinceVersion >= version) return result;
+        Change oldest = changes.peekFirst();
+        if (oldest == null || oldest.version > sinceVersion + 1) return null;
+        for (Change ch : changes) {
+            if (ch.version > sinceVersion) {
+                result.add(ch);
+            }
+        }
+        return result;
+    }
+}
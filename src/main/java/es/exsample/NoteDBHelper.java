@@ -0,0 +1,91 @@
+//NoteDBHelper.java ノート保存用データベースのヘルパークラス
+package es.exsample;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Base64;
+
+public class NoteDBHelper extends SQLiteOpenHelper {
+
+    static final String DB_NAME = "fukusyu_notes.db";
+    static final int DB_VERSION = 3;
+
+    static final String TABLE_NOTES = "notes";
+    static final String COL_ID = "_id";
+    static final String COL_SUBJECT = "subject";    // 科目 (LA / CAL)
+    static final String COL_CATEGORY = "category";  // Spinnerで選んだタイトル
+    static final String COL_TEXT = "body";          // 入力テキスト
+    static final String COL_IMAGE = "image";        // 画像キー (NoteImageStore)
+
+    private static NoteDBHelper instance;
+
+    //アプリ全体で1つのヘルパーを共有する (接続を使い回すため)
+    public static synchronized NoteDBHelper getInstance(Context context) {
+        if (instance == null) {
+            instance = new NoteDBHelper(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private final Context context;
+
+    private NoteDBHelper(Context context) {
+        super(context, DB_NAME, null, DB_VERSION);
+        this.context = context;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {  //データベース作成時の処理
+        db.execSQL("CREATE TABLE " + TABLE_NOTES + " ("
+                + COL_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + COL_SUBJECT + " TEXT NOT NULL, "
+                + COL_CATEGORY + " TEXT NOT NULL, "
+                + COL_TEXT + " TEXT NOT NULL, "
+                + COL_IMAGE + " TEXT)");
+        //科目+タイトルでの絞り込み用インデックス
+        db.execSQL("CREATE INDEX idx_notes_subject_category ON "
+                + TABLE_NOTES + " (" + COL_SUBJECT + ", " + COL_CATEGORY + ")");
+        createImageIndex(db);
+        createSubjectIndex(db);
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {  //データベースアップデート時の処理
+        if (oldVersion < 2) {
+            moveImagesToFiles(db);
+            createImageIndex(db);
+        }
+        if (oldVersion < 3) {
+            createSubjectIndex(db);
+        }
+    }
+
+    //科目ごとに id 順でページ単位に読むためのインデックス (行IDは索引に暗黙に含まれる)
+    private void createSubjectIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX idx_notes_subject ON " + TABLE_NOTES + " (" + COL_SUBJECT + ")");
+    }
+
+    //画像の参照数を数えるためのインデックス
+    private void createImageIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX idx_notes_image ON " + TABLE_NOTES + " (" + COL_IMAGE + ")");
+    }
+
+    //v1 では image 列に Base64 文字列を直接入れていたので、ファイルに書き出してキーに置き換える
+    private void moveImagesToFiles(SQLiteDatabase db) {
+        NoteImageStore store = new NoteImageStore(context);
+        Cursor c = db.query(TABLE_NOTES, new String[]{COL_ID, COL_IMAGE},
+                null, null, null, null, null);
+        try {
+            while (c.moveToNext()) {
+                ContentValues cv = new ContentValues();
+                cv.put(COL_IMAGE, store.putBase64(c.getString(1)));
+                db.update(TABLE_NOTES, cv, COL_ID + " = ?", new String[]{String.valueOf(c.getLong(0))});
+            }
+        } finally {
+            c.close();
+        }
+    }
+}
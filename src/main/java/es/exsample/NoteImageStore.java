@@ -0,0 +1,321 @@
+package es.exsample;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Base64;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * ノート画像の保存先 (filesDir/note_images)
+ *  - ファイル名はエンコード済みバイト列の SHA-256 (内容アドレス)
+ *  - 同じ画像を両方の科目に貼っても実体は1つだけ
+ *  - ノート側 (NoteItem.imageKey) はこのキーだけを持つ
+ *  - 一覧用のサムネイル (THUMB_SIZE) は thumbs/ に同じキーで別保存する
+ */
+public class NoteImageStore {
+
+    private static final String DIR_NAME = "note_images";
+    private static final String THUMB_DIR_NAME = "thumbs";
+
+    // 一覧に表示するサムネイルの長辺
+    public static final int THUMB_SIZE = 300;
+    private static final int THUMB_JPEG_QUALITY = 85;
+
+    private final File dir;
+    private final File thumbDir;
+    private final BitmapPool pool;
+
+    public NoteImageStore(Context context) {
+        dir = new File(context.getFilesDir(), DIR_NAME);
+        thumbDir = new File(dir, THUMB_DIR_NAME);
+        pool = BitmapPool.getInstance(context);
+        if (!thumbDir.exists()) {
+            thumbDir.mkdirs();
+        }
+    }
+
+    /** 画像を保存してキーを返す (既に同じ内容があれば書き込まない) */
+    public String put(byte[] encoded) throws IOException {
+        String key = hashOf(encoded);
+        File file = fileFor(key);
+        if (file.exists()) {
+            NoteMetrics.count(NoteMetrics.IMAGE_DEDUPED, 1);
+            return key;
+        }
+
+        // 書きかけのファイルが見えないよう一時ファイル経由でリネーム
+        // (一括取り込みで同じ画像を複数のスレッドが同時に保存しても衝突しないよう名前は毎回別)
+        try (NoteMetrics.Section ignored = NoteMetrics.begin(NoteMetrics.IMAGE_WRITE)) {
+            File tmp = File.createTempFile(key, ".tmp", dir);
+            FileOutputStream out = new FileOutputStream(tmp);
+            try {
+                out.write(encoded);
+                out.getFD().sync();
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+                throw new IOException("rename failed: " + file);
+            }
+        }
+        NoteMetrics.count(NoteMetrics.IMAGE_BYTES_STORED, encoded.length);
+        return key;
+    }
+
+    /** 旧形式 (Base64 文字列) の画像を保存する。壊れていれば null */
+    public String putBase64(String base64) {
+        if (base64 == null || base64.isEmpty()) return null;
+        try {
+            return put(Base64.decode(base64, Base64.DEFAULT));
+        } catch (IllegalArgumentException | IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * 画像をメモリに載せずに書き出す書き込み先 (旧形式の移行用、1枚ずつ使い回す)
+     *  - 一時ファイルに書きながら SHA-256 を計算し、最後にキーの名前へリネームする
+     */
+    public LegacyNoteReader.ImageSink newImageSink() {
+        return new LegacyNoteReader.ImageSink() {
+            private File tmp;
+            private FileOutputStream fileOut;
+            private DigestOutputStream out;
+
+            @Override
+            public OutputStream begin() throws IOException {
+                tmp = File.createTempFile("import", ".tmp", dir);
+                fileOut = new FileOutputStream(tmp);
+                out = new DigestOutputStream(new BufferedOutputStream(fileOut), newDigest());
+                return out;
+            }
+
+            @Override
+            public String commit() throws IOException {
+                try {
+                    out.flush();
+                    fileOut.getFD().sync();
+                } finally {
+                    out.close();
+                }
+                String key = toHex(out.getMessageDigest().digest());
+                File file = fileFor(key);
+                if (file.exists()) {
+                    tmp.delete();
+                    return key;
+                }
+                if (!tmp.renameTo(file)) {
+                    tmp.delete();
+                    throw new IOException("rename failed: " + file);
+                }
+                return key;
+            }
+
+            @Override
+            public void abort() {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+                tmp.delete();
+            }
+        };
+    }
+
+    /** 元画像から一覧用サムネイルを作って保存する (保存時に1回だけ) */
+    public void putThumbnail(String key, Bitmap source) throws IOException {
+        File file = thumbnailFileFor(key);
+        if (file.exists()) return;
+
+        Bitmap thumb = scaleBitmap(source, THUMB_SIZE);
+        File tmp = File.createTempFile(key, ".tmp", thumbDir);
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            thumb.compress(Bitmap.CompressFormat.JPEG, THUMB_JPEG_QUALITY, out);
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("rename failed: " + file);
+        }
+    }
+
+    /** 画像を再エンコードしてキーが変わったとき、サムネイルを作り直さずに付け替える */
+    public void moveThumbnail(String oldKey, String newKey) {
+        File from = thumbnailFileFor(oldKey);
+        File to = thumbnailFileFor(newKey);
+        if (from.exists() && !to.exists()) {
+            from.renameTo(to);
+        }
+    }
+
+    public boolean hasThumbnail(String key) {
+        return key != null && thumbnailFileFor(key).exists();
+    }
+
+    /**
+     * サムネイルを読む。無ければ元画像から作って保存する (旧データの補完)
+     */
+    public Bitmap decodeThumbnail(String key) {
+        if (hasThumbnail(key)) {
+            Bitmap thumb = BitmapFactory.decodeFile(thumbnailFileFor(key).getPath());
+            if (thumb != null) return thumb;
+        }
+        Bitmap full = decode(key, THUMB_SIZE);
+        if (full == null) return null;
+        try {
+            putThumbnail(key, full);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return full;
+    }
+
+    public File fileFor(String key) {
+        return new File(dir, key);
+    }
+
+    File thumbnailFileFor(String key) {
+        return new File(thumbDir, key);
+    }
+
+    public boolean contains(String key) {
+        return key != null && fileFor(key).exists();
+    }
+
+    public InputStream open(String key) throws IOException {
+        return new BufferedInputStream(new FileInputStream(fileFor(key)));
+    }
+
+    public void delete(String key) {
+        if (key == null) return;
+        fileFor(key).delete();
+        thumbnailFileFor(key).delete();
+    }
+
+    /**
+     * ディスクから直接デコード (長辺 maxSize 以下)
+     *  - 先にサイズだけ読み、inSampleSize で間引いてから読み込む
+     *  - 間引いた画像は BitmapPool の Bitmap に読み込み、縮小後に不要になれば戻す
+     */
+    public Bitmap decode(String key, int maxSize) {
+        return decode(key, maxSize, maxSize);
+    }
+
+    /** ディスクから直接デコード (maxWidth × maxHeight に収まる大きさ。拡大表示用の先読みなど) */
+    public Bitmap decode(String key, int maxWidth, int maxHeight) {
+        try (NoteMetrics.Section ignored = NoteMetrics.begin(NoteMetrics.IMAGE_DECODE_STORED)) {
+            if (!contains(key)) return null;
+            try {
+                BitmapFactory.Options opts = new BitmapFactory.Options();
+                opts.inJustDecodeBounds = true;
+                InputStream in = open(key);
+                try {
+                    BitmapFactory.decodeStream(in, null, opts);
+                } finally {
+                    in.close();
+                }
+
+                int inSampleSize = 1;
+                while (opts.outWidth / (inSampleSize * 2) >= maxWidth
+                        || opts.outHeight / (inSampleSize * 2) >= maxHeight) {
+                    inSampleSize *= 2;
+                }
+                opts.inSampleSize = inSampleSize;
+                opts.inJustDecodeBounds = false;
+                opts.inMutable = true;
+                opts.inBitmap = pool.take((opts.outWidth + inSampleSize - 1) / inSampleSize,
+                        (opts.outHeight + inSampleSize - 1) / inSampleSize, Bitmap.Config.ARGB_8888);
+
+                Bitmap sampled;
+                in = open(key);
+                try {
+                    sampled = BitmapFactory.decodeStream(in, null, opts);
+                } catch (IllegalArgumentException e) {
+                    // 使い回せなかった: 新しく確保してやり直す
+                    in.close();
+                    pool.put(opts.inBitmap);
+                    opts.inBitmap = null;
+                    in = open(key);
+                    sampled = BitmapFactory.decodeStream(in, null, opts);
+                } finally {
+                    in.close();
+                }
+                if (sampled == null) {
+                    pool.put(opts.inBitmap);
+                    return null;
+                }
+                Bitmap scaled = scaleBitmap(sampled, maxWidth, maxHeight);
+                if (scaled != sampled) {
+                    pool.put(sampled);
+                }
+                return scaled;
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+    }
+
+    static Bitmap scaleBitmap(Bitmap src, int maxSize) {
+        int w = src.getWidth();
+        int h = src.getHeight();
+        if (w <= maxSize && h <= maxSize) return src;
+        float ratio = (float) w / (float) h;
+        if (ratio > 1f) {
+            w = maxSize;
+            h = (int)(maxSize / ratio);
+        } else {
+            h = maxSize;
+            w = (int)(maxSize * ratio);
+        }
+        return Bitmap.createScaledBitmap(src, w, h, true);
+    }
+
+    // 縦横比を保って maxWidth × maxHeight に収める (収まっていればそのまま)
+    static Bitmap scaleBitmap(Bitmap src, int maxWidth, int maxHeight) {
+        int w = src.getWidth();
+        int h = src.getHeight();
+        if (w <= maxWidth && h <= maxHeight) return src;
+        if (maxWidth == maxHeight) return scaleBitmap(src, maxWidth);
+        float ratio = Math.min((float) maxWidth / w, (float) maxHeight / h);
+        return Bitmap.createScaledBitmap(src, Math.max(1, Math.round(w * ratio)),
+                Math.max(1, Math.round(h * ratio)), true);
+    }
+
+    static String hashOf(byte[] bytes) {
+        return toHex(newDigest().digest(bytes));
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] digest) {
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16))
+                    .append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,24 @@
+package es.exsample;
+
+/**
+ * ノート1件分のデータ (線形代数・微分積分で共通)
+ *  - id は NoteRepository が採番する行ID (未保存のときは 0)
+ *  - 画像本体は NoteImageStore に置き、ここではキーだけを持つ
+ */
+public class NoteItem {
+    public long id;
+    public String imageKey;
+    public String spinnerText;
+    public String editText;
+
+    public NoteItem(String imageKey, String spinnerText, String editText) {
+        this.imageKey = imageKey;
+        this.spinnerText = spinnerText;
+        this.editText = editText;
+    }
+
+    /** リポジトリから読み込んだ行を各画面の項目クラスに変換する */
+    public interface Factory<T extends NoteItem> {
+        T create(String imageKey, String spinnerText, String editText);
+    }
+}
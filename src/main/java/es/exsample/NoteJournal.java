@@ -0,0 +1,220 @@
+package es.exsample;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * ノート変更の追記専用ジャーナル (filesDir/note_journal)
+ *  - 変更1件 = 1レコード [長さ][内容][CRC32]。書き込み途中で落ちて切れた末尾は読み込み時に捨てる
+ *  - append はメモリに積むだけ。write で積んだ分をまとめて1回書いて1回 fsync する (group commit)
+ *  - SQLite に反映し終えたら truncate で空にする
+ *  - append はどのスレッドからでもよい。それ以外は NoteStore の書き込みスレッドから呼ぶ
+ */
+public class NoteJournal {
+
+    public static final byte INSERT = 1;
+    public static final byte UPDATE = 2;
+    public static final byte DELETE = 3;
+    public static final byte REPLACE_IMAGE = 4;
+
+    /** 変更1件 */
+    public static class Record {
+        final byte type;
+        final String subject;   // REPLACE_IMAGE は科目をまたぐので null
+        final long id;
+        final String imageKey;  // REPLACE_IMAGE では付け替え前のキー
+        final String category;
+        final String text;
+        final String newImageKey;
+
+        Record(byte type, String subject, long id, String imageKey, String category, String text,
+               String newImageKey) {
+            this.type = type;
+            this.subject = subject;
+            this.id = id;
+            this.imageKey = imageKey;
+            this.category = category;
+            this.text = text;
+            this.newImageKey = newImageKey;
+        }
+
+        static Record insert(String subject, NoteItem item) {
+            return new Record(INSERT, subject, item.id, item.imageKey, item.spinnerText, item.editText, null);
+        }
+
+        static Record update(String subject, NoteItem item) {
+            return new Record(UPDATE, subject, item.id, item.imageKey, item.spinnerText, item.editText, null);
+        }
+
+        static Record delete(String subject, long id) {
+            return new Record(DELETE, subject, id, null, null, null, null);
+        }
+
+        static Record replaceImage(String oldKey, String newKey) {
+            return new Record(REPLACE_IMAGE, null, 0, oldKey, null, null, newKey);
+        }
+
+        /** INSERT / UPDATE の内容をノートにする */
+        <T extends NoteItem> T toItem(NoteItem.Factory<T> factory) {
+            T item = factory.create(imageKey, category, text);
+            item.id = id;
+            return item;
+        }
+    }
+
+    private final File file;
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private List<Record> pending = new ArrayList<>();
+
+    public NoteJournal(File file) {
+        this.file = file;
+    }
+
+    /** 変更を積む (まだ書かない) */
+    public synchronized void append(Record record) {
+        pending.add(record);
+    }
+
+    /** 積まれている変更を取り出す (write に渡す) */
+    public synchronized List<Record> drain() {
+        List<Record> batch = pending;
+        pending = new ArrayList<>();
+        return batch;
+    }
+
+    /** まとめて追記して fsync する */
+    public void write(List<Record> batch) throws IOException {
+        if (batch.isEmpty()) return;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        CRC32 crc = new CRC32();
+        for (Record r : batch) {
+            byte[] payload = encode(r);
+            crc.reset();
+            crc.update(payload, 0, payload.length);
+            out.writeInt(payload.length);
+            out.write(payload);
+            out.writeInt((int) crc.getValue());
+        }
+        FileChannel ch = channel();
+        ByteBuffer buf = ByteBuffer.wrap(bytes.toByteArray());
+        ch.position(ch.size());
+        while (buf.hasRemaining()) {
+            ch.write(buf);
+        }
+        ch.force(false);
+    }
+
+    /**
+     * ファイルに残っている変更を読む (前回 SQLite に反映する前に終了した分)
+     *  - 壊れたレコード以降は捨てて、ファイルもそこで切り詰める
+     */
+    public List<Record> readAll() throws IOException {
+        List<Record> records = new ArrayList<>();
+        FileChannel ch = channel();
+        long size = ch.size();
+        if (size == 0) return records;
+
+        ByteBuffer all = ByteBuffer.allocate((int) size);
+        ch.position(0);
+        while (all.hasRemaining() && ch.read(all) >= 0) {
+            // 読み切るまで
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(all.array()));
+        CRC32 crc = new CRC32();
+        long good = 0;
+        try {
+            while (good < size) {
+                int length = in.readInt();
+                if (length < 0 || length > size - good - 8) break;
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                int expected = in.readInt();
+                crc.reset();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != expected) break;
+                records.add(decode(payload));
+                good += 8 + length;
+            }
+        } catch (EOFException e) {
+            // 末尾が途中で切れている
+        }
+        if (good < size) {
+            ch.truncate(good);
+            ch.force(false);
+        }
+        return records;
+    }
+
+    /** SQLite に反映し終えたので空にする */
+    public void truncate() throws IOException {
+        FileChannel ch = channel();
+        ch.truncate(0);
+        ch.force(false);
+    }
+
+    public long size() throws IOException {
+        return channel().size();
+    }
+
+    private FileChannel channel() throws IOException {
+        if (channel == null) {
+            raf = new RandomAccessFile(file, "rw");
+            channel = raf.getChannel();
+        }
+        return channel;
+    }
+
+    private static byte[] encode(Record r) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(r.type);
+        writeString(out, r.subject);
+        out.writeLong(r.id);
+        writeString(out, r.imageKey);
+        writeString(out, r.category);
+        writeString(out, r.text);
+        writeString(out, r.newImageKey);
+        return bytes.toByteArray();
+    }
+
+    private static Record decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte type = in.readByte();
+        String subject = readString(in);
+        long id = in.readLong();
+        return new Record(type, subject, id, readString(in), readString(in), readString(in), readString(in));
+    }
+
+    // writeUTF は 64KB までなので、長さ + UTF-8 で書く (null は -1)
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) return null;
+        byte[] b = new byte[length];
+        in.readFully(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,172 @@
+package es.exsample;
+
+import android.view.LayoutInflater;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewGroup;
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.ListAdapter;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * ノート一覧 (線形代数・微分積分で共通) の RecyclerView アダプタ
+ *  - submitList() で渡した新旧リストの差分だけを DiffUtil で反映する
+ *  - ノートID を安定IDとして使う
+ *  - 検索中は検索語の一致箇所を強調表示する
+ *  - 拡大表示用の画像を先読みする (行に指が触れたとき、スクロールが止まって DWELL_MS 表示され続けた行)
+ */
+public class NoteListAdapter extends ListAdapter<NoteItem, NoteViewHolder> {
+
+    public interface OnNoteClickListener {
+        void onNoteClick(NoteItem item, int position);
+    }
+
+    private static final DiffUtil.ItemCallback<NoteItem> DIFF = new DiffUtil.ItemCallback<NoteItem>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull NoteItem oldItem, @NonNull NoteItem newItem) {
+            return oldItem.id == newItem.id;
+        }
+        @Override
+        public boolean areContentsTheSame(@NonNull NoteItem oldItem, @NonNull NoteItem newItem) {
+            return Objects.equals(oldItem.imageKey, newItem.imageKey)
+                    && Objects.equals(oldItem.spinnerText, newItem.spinnerText)
+                    && Objects.equals(oldItem.editText, newItem.editText);
+        }
+    };
+
+    // スクロールが止まってから先読みを始めるまで (フリングの途中の一瞬の停止では始めない)
+    private static final long DWELL_MS = 300;
+    // 止まったときに先読みする行数 (画面に全体が見えている行の上から)
+    private static final int MAX_DWELL_PREFETCH = 3;
+
+    private final ThumbnailLoader thumbnailLoader;
+    private final ExpansionPrefetcher prefetcher;
+    private final OnNoteClickListener listener;
+    private String highlightQuery = "";
+    private RecyclerView recyclerView;
+
+    private final Runnable dwellPrefetch = this::prefetchVisible;
+    private final RecyclerView.OnScrollListener dwellListener = new RecyclerView.OnScrollListener() {
+        @Override
+        public void onScrollStateChanged(@NonNull RecyclerView rv, int newState) {
+            scheduleDwellPrefetch(newState == RecyclerView.SCROLL_STATE_IDLE);
+        }
+    };
+
+    public NoteListAdapter(ThumbnailLoader thumbnailLoader, ExpansionPrefetcher prefetcher,
+                           OnNoteClickListener listener) {
+        super(DIFF);
+        this.thumbnailLoader = thumbnailLoader;
+        this.prefetcher = prefetcher;
+        this.listener = listener;
+        setHasStableIds(true);
+    }
+
+    /** 強調表示する検索語 (空なら強調なし)。変わったら表示中の行を再バインドする */
+    public void setHighlightQuery(String query) {
+        if (query == null) query = "";
+        if (query.equals(highlightQuery)) return;
+        highlightQuery = query;
+        notifyItemRangeChanged(0, getItemCount());
+    }
+
+    //ビューホルダーの生成
+    @NonNull
+    @Override
+    public NoteViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View v = LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.note_list_item, parent, false);
+        NoteViewHolder holder = new NoteViewHolder(v);
+        // 指が触れた時点で先読みを始める (離してから画面が開くまでの間にデコードを済ませる)。クリックの判定はそのまま
+        v.setOnTouchListener((view, event) -> {
+            int pos = holder.getAdapterPosition();
+            if (event.getActionMasked() == MotionEvent.ACTION_DOWN && pos != RecyclerView.NO_POSITION) {
+                prefetcher.prefetchNow(getItem(pos).imageKey);
+            }
+            return false;
+        });
+        v.setOnClickListener(view -> {
+            int pos = holder.getAdapterPosition();
+            if (pos != RecyclerView.NO_POSITION) {
+                listener.onNoteClick(getItem(pos), pos);
+            }
+        });
+        return holder;
+    }
+
+    //データをビューホルダーに設定
+    @Override
+    public void onBindViewHolder(@NonNull NoteViewHolder holder, int position) {
+        try (NoteMetrics.Section ignored = NoteMetrics.begin(NoteMetrics.LIST_BIND)) {
+            NoteItem item = getItem(position);
+            holder.title.setText(NoteSearchIndex.highlight(item.spinnerText, highlightQuery));
+            holder.text.setText(NoteSearchIndex.highlight(item.editText, highlightQuery));
+            thumbnailLoader.load(item.id, item.imageKey, holder.thumbnail);
+        }
+        NoteMetrics.count(NoteMetrics.LIST_ROWS_BOUND, 1);
+    }
+
+    //画面外に出て再利用される行はデコードを取り消す
+    @Override
+    public void onViewRecycled(@NonNull NoteViewHolder holder) {
+        thumbnailLoader.cancel(holder.thumbnail);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return getItem(position).id;
+    }
+
+    @Override
+    public void onAttachedToRecyclerView(@NonNull RecyclerView rv) {
+        recyclerView = rv;
+        rv.addOnScrollListener(dwellListener);
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(@NonNull RecyclerView rv) {
+        rv.removeOnScrollListener(dwellListener);
+        rv.removeCallbacks(dwellPrefetch);
+        recyclerView = null;
+    }
+
+    //一覧が差し替わった (最初の表示・絞り込み) ときも、止まっていれば表示中の行を先読みする
+    @Override
+    public void onCurrentListChanged(@NonNull List<NoteItem> previousList, @NonNull List<NoteItem> currentList) {
+        if (recyclerView != null) {
+            scheduleDwellPrefetch(recyclerView.getScrollState() == RecyclerView.SCROLL_STATE_IDLE);
+        }
+    }
+
+    private void scheduleDwellPrefetch(boolean idle) {
+        if (recyclerView == null) return;
+        recyclerView.removeCallbacks(dwellPrefetch);
+        if (idle) {
+            recyclerView.postDelayed(dwellPrefetch, DWELL_MS);
+        }
+    }
+
+    private void prefetchVisible() {
+        if (recyclerView == null || !(recyclerView.getLayoutManager() instanceof LinearLayoutManager)) return;
+        LinearLayoutManager lm = (LinearLayoutManager) recyclerView.getLayoutManager();
+        int first = lm.findFirstCompletelyVisibleItemPosition();
+        int last = lm.findLastCompletelyVisibleItemPosition();
+        if (first == RecyclerView.NO_POSITION) return;
+        List<String> keys = new ArrayList<>();
+        for (int pos = first; pos <= last && pos < getItemCount() && keys.size() < MAX_DWELL_PREFETCH; pos++) {
+            String key = getItem(pos).imageKey;
+            if (key != null) keys.add(key);
+        }
+        // 見えなくなった行の分はまだ始まっていなければやめる
+        prefetcher.retain(keys);
+        for (String key : keys) {
+            prefetcher.prefetch(key);
+        }
+    }
+}
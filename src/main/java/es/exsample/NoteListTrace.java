@@ -0,0 +1,44 @@
+package es.exsample;
+
+import android.os.Build;
+import android.os.Trace;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 一覧画面の所要時間をシステムトレースの区間として出す (Perfetto / Macrobenchmark の TraceSectionMetric で読む)
+ *  - FIRST_ROW : 画面の作成から最初の行が一覧に反映されるまで
+ *  - FILTER    : 検索用 Spinner の選択から一覧に反映されるまで
+ *  - 画面ごとに1つ。UI スレッドから呼ぶこと
+ *  - 非同期の区間は API 29 以降のみ (それより前は何もしない)
+ */
+public class NoteListTrace {
+
+    public static final String FIRST_ROW = "NoteList.firstRow";
+    public static final String FILTER = "NoteList.filter";
+
+    private static int nextCookie = 1;
+
+    private final Map<String, Integer> open = new HashMap<>();
+
+    /** 区間を始める (同じ名前の区間が終わっていなければ、そこで終わらせてから) */
+    public void begin(String name) {
+        end(name);
+        int cookie = nextCookie++;
+        open.put(name, cookie);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.beginAsyncSection(name, cookie);
+        }
+    }
+
+    /** 区間を終える。始まっていなければ false */
+    public boolean end(String name) {
+        Integer cookie = open.remove(name);
+        if (cookie == null) return false;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            Trace.endAsyncSection(name, cookie);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,239 @@
+package es.exsample;
+
+import android.content.Context;
+import android.os.Build;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.JsonWriter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * ノートまわりの処理の計測 (「画像を追加したら固まった」などの原因の切り分け用)
+ *  - begin で始めた区間はシステムトレース (Perfetto) に出し、所要時間をヒストグラムに足す
+ *  - count で件数・バイト数などを数える
+ *  - 診断情報画面 (DiagnosticsActivity) で一覧表示し、JSON で書き出せる
+ *  - どのスレッドから呼んでもよい (区間は始めたスレッドで終えること)
+ */
+public final class NoteMetrics {
+
+    // 区間 (所要時間)
+    public static final String IMAGE_DECODE = "image.decode";           // 取り込み時の URI からのデコードと縮小
+    public static final String IMAGE_ENCODE = "image.encode";           // 保存形式へのエンコード (ImageEncodePolicy)
+    public static final String IMAGE_WRITE = "image.write";             // 画像ファイルの書き込み (fsync 込み)
+    public static final String IMAGE_DECODE_STORED = "image.decodeStored";   // 保存済み画像のデコード (編集画面など)
+    public static final String THUMB_DECODE = "thumb.decode";           // 一覧のサムネイルのデコード
+    public static final String TILE_DECODE = "tile.decode";             // 拡大表示のタイルのデコード
+    public static final String STORE_COMMIT = "store.commit";           // ジャーナルへの書き込み (fsync 込み)
+    public static final String STORE_COMPACT = "store.compact";         // ジャーナルから SQLite への反映
+    public static final String LIST_BIND = "list.bind";                 // 一覧の1行のバインド
+    public static final String LIST_RELOAD = "list.reload";             // 一覧の差し替えから反映まで (差分計算込み)
+    public static final String EXPANSION_SHARP = "expansion.sharp";     // 拡大表示画面の作成から鮮明な画像が出るまで
+
+    // カウンタ
+    public static final String IMAGE_BYTES_STORED = "image.bytesStored";
+    public static final String IMAGE_DEDUPED = "image.deduped";         // 同じ内容が保存済みで書かなかった数
+    public static final String STORE_RECORDS = "store.records";         // ジャーナルに書いた変更の数
+    public static final String LIST_ROWS_BOUND = "list.rowsBound";
+    public static final String THUMB_HIT = "thumb.hit";
+    public static final String THUMB_MISS = "thumb.miss";
+    public static final String PREFETCH_ISSUED = "prefetch.issued";     // 拡大表示用の先読みを始めた数
+    public static final String PREFETCH_HIT = "prefetch.hit";           // 拡大表示画面を開いた時点で先読みが済んでいた数
+    public static final String PREFETCH_MISS = "prefetch.miss";
+
+    static final int FORMAT_VERSION = 1;
+
+    private static final Map<String, Long> counters = new TreeMap<>();
+    private static final Map<String, Histogram> histograms = new TreeMap<>();
+    private static long since = System.currentTimeMillis();
+
+    private NoteMetrics() {
+    }
+
+    /** 計測区間 (try-with-resources で使う) */
+    public static final class Section implements AutoCloseable {
+        private final String name;
+        private final long start = SystemClock.elapsedRealtimeNanos();
+        private boolean closed = false;
+
+        private Section(String name) {
+            this.name = name;
+            Trace.beginSection(name);
+        }
+
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            Trace.endSection();
+            record(name, SystemClock.elapsedRealtimeNanos() - start);
+        }
+    }
+
+    public static Section begin(String name) {
+        return new Section(name);
+    }
+
+    /** 区間を使わずに測った所要時間を足す (始めと終わりのスレッドが違う場合など) */
+    public static synchronized void record(String name, long nanos) {
+        Histogram h = histograms.get(name);
+        if (h == null) {
+            h = new Histogram();
+            histograms.put(name, h);
+        }
+        h.add(nanos / 1000);
+    }
+
+    public static synchronized void count(String name, long delta) {
+        Long v = counters.get(name);
+        counters.put(name, (v != null ? v : 0) + delta);
+    }
+
+    public static synchronized void reset() {
+        counters.clear();
+        histograms.clear();
+        since = System.currentTimeMillis();
+    }
+
+    /** 画面表示用の要約 */
+    public static synchronized String summary(Context context) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("所要時間 (ms)          件数     平均    p50    p95     最大\n");
+        for (Map.Entry<String, Histogram> e : histograms.entrySet()) {
+            Histogram h = e.getValue();
+            sb.append(String.format(Locale.US, "%-20s %6d %8.1f %6.1f %6.1f %8.1f\n", e.getKey(), h.count,
+                    h.meanMillis(), h.percentileMillis(0.5), h.percentileMillis(0.95), h.maxMicros / 1000.0));
+        }
+        sb.append("\nカウンタ\n");
+        for (Map.Entry<String, Long> e : counters.entrySet()) {
+            sb.append(String.format(Locale.US, "%-20s %d\n", e.getKey(), e.getValue()));
+        }
+        BitmapPool pool = BitmapPool.getInstance(context);
+        sb.append("\nキャッシュのヒット率\n");
+        sb.append(String.format(Locale.US, "%-20s %s\n", "thumbnail", percent(hitRate(THUMB_HIT, THUMB_MISS))));
+        sb.append(String.format(Locale.US, "%-20s %s\n", "prefetch", percent(hitRate(PREFETCH_HIT, PREFETCH_MISS))));
+        sb.append(String.format(Locale.US, "%-20s %s\n", "bitmapPool", percent(pool.hitRate())));
+        sb.append("\n").append(pool.stats()).append("\n");
+        return sb.toString();
+    }
+
+    /** 計測結果を JSON で書き出す (書き終えても out は閉じない) */
+    public static void writeJson(Context context, Writer out) throws IOException {
+        Context app = context.getApplicationContext();
+        JsonWriter json = new JsonWriter(out);
+        json.setIndent("  ");
+        json.beginObject();
+        json.name("version").value(FORMAT_VERSION);
+        json.name("since").value(since);
+        json.name("at").value(System.currentTimeMillis());
+        json.name("device").beginObject();
+        json.name("model").value(Build.MANUFACTURER + " " + Build.MODEL);
+        json.name("sdk").value(Build.VERSION.SDK_INT);
+        json.endObject();
+
+        synchronized (NoteMetrics.class) {
+            json.name("histograms").beginObject();
+            for (Map.Entry<String, Histogram> e : histograms.entrySet()) {
+                json.name(e.getKey());
+                e.getValue().writeJson(json);
+            }
+            json.endObject();
+            json.name("counters").beginObject();
+            for (Map.Entry<String, Long> e : counters.entrySet()) {
+                json.name(e.getKey()).value(e.getValue());
+            }
+            json.endObject();
+            json.name("hitRates").beginObject();
+            json.name("thumbnail").value(hitRate(THUMB_HIT, THUMB_MISS));
+            json.name("prefetch").value(hitRate(PREFETCH_HIT, PREFETCH_MISS));
+            json.name("bitmapPool").value(BitmapPool.getInstance(app).hitRate());
+            json.endObject();
+        }
+
+        Runtime rt = Runtime.getRuntime();
+        json.name("memory").beginObject();
+        json.name("budgetBytes").value(MemoryTelemetry.budgetBytes(app));
+        json.name("thumbnailBytes").value(ThumbnailLoader.getInstance(app).cachedBytes());
+        json.name("prefetchBytes").value(ExpansionPrefetcher.getInstance(app).cachedBytes());
+        json.name("tileBytes").value(TiledImageView.liveTileBytes());
+        json.name("poolBytes").value(BitmapPool.getInstance(app).pooledBytes());
+        json.name("javaHeapBytes").value(rt.totalMemory() - rt.freeMemory());
+        json.name("nativeHeapBytes").value(Debug.getNativeHeapAllocatedSize());
+        json.endObject();
+        json.endObject();
+        json.flush();
+    }
+
+    // 0〜1。まだ1回も引いていなければ -1
+    private static synchronized double hitRate(String hitName, String missName) {
+        Long hit = counters.get(hitName);
+        Long miss = counters.get(missName);
+        long h = hit != null ? hit : 0;
+        long total = h + (miss != null ? miss : 0);
+        return total > 0 ? (double) h / total : -1;
+    }
+
+    private static String percent(double rate) {
+        return rate < 0 ? "-" : String.format(Locale.US, "%.1f%%", rate * 100);
+    }
+
+    /**
+     * 所要時間の分布 (マイクロ秒)。区分は2のべき乗ごと (i 番目は 2^(i-1) 以上 2^i 未満、0 番目は 1 未満)
+     *  - パーセンタイルは区分の上端で近似する
+     */
+    static class Histogram {
+        static final int BUCKETS = 36;
+
+        final long[] buckets = new long[BUCKETS];
+        long count = 0;
+        long sumMicros = 0;
+        long maxMicros = 0;
+
+        void add(long micros) {
+            int b = micros <= 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            buckets[b]++;
+            count++;
+            sumMicros += micros;
+            maxMicros = Math.max(maxMicros, micros);
+        }
+
+        double meanMillis() {
+            return count > 0 ? sumMicros / 1000.0 / count : 0;
+        }
+
+        double percentileMillis(double q) {
+            long target = (long) Math.ceil(count * q);
+            long seen = 0;
+            for (int b = 0; b < BUCKETS; b++) {
+                seen += buckets[b];
+                if (seen >= target && seen > 0) {
+                    return Math.min(1L << b, maxMicros) / 1000.0;
+                }
+            }
+            return 0;
+        }
+
+        void writeJson(JsonWriter json) throws IOException {
+            json.beginObject();
+            json.name("count").value(count);
+            json.name("meanMs").value(meanMillis());
+            json.name("p50Ms").value(percentileMillis(0.5));
+            json.name("p95Ms").value(percentileMillis(0.95));
+            json.name("maxMs").value(maxMicros / 1000.0);
+            // 上端 (マイクロ秒) -> 件数。空の区分は省く
+            json.name("bucketsUs").beginObject();
+            for (int b = 0; b < BUCKETS; b++) {
+                if (buckets[b] > 0) {
+                    json.name(Long.toString(1L << b)).value(buckets[b]);
+                }
+            }
+            json.endObject();
+            json.endObject();
+        }
+    }
+}
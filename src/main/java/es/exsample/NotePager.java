@@ -0,0 +1,122 @@
+package es.exsample;
+
+import android.os.Handler;
+import android.os.Looper;
+import androidx.annotation.NonNull;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleEventObserver;
+import androidx.lifecycle.LifecycleOwner;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * ノート一覧のページ読み込み (全件の読み込みが終わるまでの間だけ使う)
+ *  - 最初の1ページ (pageSize 件の見出し) だけ読んで表示するので、件数によらず最初の表示が速い
+ *  - 末尾まで残り prefetchDistance 行になったら次のページを読む
+ *  - 読み込みはバックグラウンド、結果は UI スレッドのコールバックで返す
+ *  - stop() か Activity の破棄で止まる
+ */
+public class NotePager<T extends NoteItem> extends RecyclerView.OnScrollListener
+        implements LifecycleEventObserver {
+
+    public interface Callback<T> {
+        /** ここまでに読んだ全ページ (id 昇順) */
+        void onPageLoaded(List<T> loaded);
+    }
+
+    // 1ページの件数は1画面分より多めに (行の高さは 120dp 程度)
+    static final int DEFAULT_PAGE_SIZE = 30;
+    static final int DEFAULT_PREFETCH_DISTANCE = 10;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final NoteStore.Subject<T> notes;
+    private final RecyclerView list;
+    private final int pageSize;
+    private final int prefetchDistance;
+    private final Callback<T> callback;
+
+    private final List<T> loaded = new ArrayList<>();
+    private long lastId = 0;
+    private boolean loading = false;
+    private boolean finished = false;
+    private boolean stopped = false;
+
+    public NotePager(AppCompatActivity activity, NoteStore.Subject<T> notes, RecyclerView list,
+                     Callback<T> callback) {
+        this(activity, notes, list, DEFAULT_PAGE_SIZE, DEFAULT_PREFETCH_DISTANCE, callback);
+    }
+
+    public NotePager(AppCompatActivity activity, NoteStore.Subject<T> notes, RecyclerView list,
+                     int pageSize, int prefetchDistance, Callback<T> callback) {
+        this.notes = notes;
+        this.list = list;
+        this.pageSize = pageSize;
+        this.prefetchDistance = prefetchDistance;
+        this.callback = callback;
+        activity.getLifecycle().addObserver(this);
+    }
+
+    public void start() {
+        list.addOnScrollListener(this);
+        loadNextPage();
+    }
+
+    public void stop() {
+        if (stopped) return;
+        stopped = true;
+        list.removeOnScrollListener(this);
+        executor.shutdownNow();
+    }
+
+    @Override
+    public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+        loadMoreIfNeeded();
+    }
+
+    @Override
+    public void onStateChanged(@NonNull LifecycleOwner source, @NonNull Lifecycle.Event event) {
+        if (event == Lifecycle.Event.ON_DESTROY) {
+            stop();
+            source.getLifecycle().removeObserver(this);
+        }
+    }
+
+    private void loadMoreIfNeeded() {
+        if (stopped || loading || finished) return;
+        RecyclerView.LayoutManager lm = list.getLayoutManager();
+        if (!(lm instanceof LinearLayoutManager)) return;
+        int last = ((LinearLayoutManager) lm).findLastVisibleItemPosition();
+        if (last >= loaded.size() - prefetchDistance) {
+            loadNextPage();
+        }
+    }
+
+    private void loadNextPage() {
+        loading = true;
+        long after = lastId;
+        executor.execute(() -> {
+            List<T> page = notes.loadHeaders(after, pageSize);
+            mainHandler.post(() -> {
+                loading = false;
+                if (stopped) return;
+                if (page.size() < pageSize) {
+                    finished = true;
+                }
+                if (!page.isEmpty()) {
+                    lastId = page.get(page.size() - 1).id;
+                    loaded.addAll(page);
+                }
+                callback.onPageLoaded(new ArrayList<>(loaded));
+                // 1ページで画面が埋まらなかった場合はスクロールを待たずに続きを読む
+                list.post(this::loadMoreIfNeeded);
+            });
+        });
+    }
+}
@@ -0,0 +1,270 @@
+package es.exsample;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ノートの保存先 (SQLite)
+ *  - 1ノート = 1行。追加/編集/削除は該当行だけを書き換える
+ *  - 画像は NoteImageStore のキーで参照し、どの行からも使われなくなったら削除する
+ *  - 画面からは直接使わず、NoteStore が専用スレッドから呼ぶ
+ *  - 旧形式 (SharedPreferences に @@@ / ### 区切りで1文字列) からの移行を初回に1度だけ行う
+ */
+public class NoteRepository {
+
+    public static final String SUBJECT_LA = "LA";
+    public static final String SUBJECT_CAL = "CAL";
+
+    // 旧形式の保存場所
+    private static final String LEGACY_LA_PREF_NAME = "LinearAlgebraPrefs";
+    private static final String LEGACY_LA_KEY = "LA_ITEM_LIST";
+    private static final String LEGACY_CAL_PREF_NAME = "CalculusPrefs";
+    private static final String LEGACY_CAL_KEY = "CAL_ITEM_LIST";
+
+    private final Context context;
+    private final NoteDBHelper helper;
+    private final NoteImageStore imageStore;
+    private final String subject;
+    private final NoteChangeLog changeLog;
+
+    // 一覧の見出しとして読む本文の長さ (一覧の行は数行しか表示しない)
+    static final int SNIPPET_LENGTH = 200;
+
+    public NoteRepository(Context context, String subject) {
+        this.context = context.getApplicationContext();
+        this.helper = NoteDBHelper.getInstance(context);
+        this.imageStore = new NoteImageStore(context);
+        this.subject = subject;
+        this.changeLog = NoteChangeLog.forSubject(subject);
+    }
+
+    public NoteChangeLog getChangeLog() {
+        return changeLog;
+    }
+
+    /** 全件読み込み (初回は旧形式からの移行も行う) */
+    public <T extends NoteItem> List<T> loadAll(NoteItem.Factory<T> factory) {
+        migrateFromPrefsIfNeeded();
+        List<T> result = new ArrayList<>();
+        SQLiteDatabase db = helper.getReadableDatabase();
+        Cursor c = db.query(NoteDBHelper.TABLE_NOTES,
+                new String[]{NoteDBHelper.COL_ID, NoteDBHelper.COL_IMAGE,
+                        NoteDBHelper.COL_CATEGORY, NoteDBHelper.COL_TEXT},
+                NoteDBHelper.COL_SUBJECT + " = ?", new String[]{subject},
+                null, null, NoteDBHelper.COL_ID + " ASC");
+        try {
+            while (c.moveToNext()) {
+                T item = factory.create(c.getString(1), c.getString(2), c.getString(3));
+                item.id = c.getLong(0);
+                result.add(item);
+            }
+        } finally {
+            c.close();
+        }
+        return result;
+    }
+
+    /**
+     * id が afterId より大きいノートを id 順に最大 limit 件読む (一覧の見出し用)
+     *  - 本文は先頭 SNIPPET_LENGTH 文字だけ読む
+     *  - 件数に関係なく、索引をたどって limit 件分だけ読む
+     */
+    public <T extends NoteItem> List<T> loadHeaders(long afterId, int limit, NoteItem.Factory<T> factory) {
+        migrateFromPrefsIfNeeded();
+        List<T> result = new ArrayList<>();
+        SQLiteDatabase db = helper.getReadableDatabase();
+        Cursor c = db.query(NoteDBHelper.TABLE_NOTES,
+                new String[]{NoteDBHelper.COL_ID, NoteDBHelper.COL_IMAGE, NoteDBHelper.COL_CATEGORY,
+                        "substr(" + NoteDBHelper.COL_TEXT + ", 1, " + SNIPPET_LENGTH + ")"},
+                NoteDBHelper.COL_SUBJECT + " = ? AND " + NoteDBHelper.COL_ID + " > ?",
+                new String[]{subject, String.valueOf(afterId)},
+                null, null, NoteDBHelper.COL_ID + " ASC", String.valueOf(limit));
+        try {
+            while (c.moveToNext()) {
+                T item = factory.create(c.getString(1), c.getString(2), c.getString(3));
+                item.id = c.getLong(0);
+                result.add(item);
+            }
+        } finally {
+            c.close();
+        }
+        return result;
+    }
+
+    /** 1件だけ読み込む。無ければ null */
+    public <T extends NoteItem> T find(long id, NoteItem.Factory<T> factory) {
+        Cursor c = helper.getReadableDatabase().query(NoteDBHelper.TABLE_NOTES,
+                new String[]{NoteDBHelper.COL_IMAGE, NoteDBHelper.COL_CATEGORY, NoteDBHelper.COL_TEXT},
+                NoteDBHelper.COL_ID + " = ? AND " + NoteDBHelper.COL_SUBJECT + " = ?",
+                new String[]{String.valueOf(id), subject}, null, null, null);
+        try {
+            if (!c.moveToFirst()) return null;
+            T item = factory.create(c.getString(0), c.getString(1), c.getString(2));
+            item.id = id;
+            return item;
+        } finally {
+            c.close();
+        }
+    }
+
+    /** 使用中の最大の行ID (科目を問わない) */
+    public long maxId() {
+        return DatabaseUtils.longForQuery(helper.getReadableDatabase(),
+                "SELECT IFNULL(MAX(" + NoteDBHelper.COL_ID + "), 0) FROM " + NoteDBHelper.TABLE_NOTES, null);
+    }
+
+    /** 全科目のノートが参照している画像キー (重複なし) */
+    public List<String> loadAllImageKeys() {
+        List<String> result = new ArrayList<>();
+        Cursor c = helper.getReadableDatabase().query(true, NoteDBHelper.TABLE_NOTES,
+                new String[]{NoteDBHelper.COL_IMAGE}, NoteDBHelper.COL_IMAGE + " IS NOT NULL",
+                null, null, null, null, null);
+        try {
+            while (c.moveToNext()) {
+                result.add(c.getString(0));
+            }
+        } finally {
+            c.close();
+        }
+        return result;
+    }
+
+    /** body を1つのトランザクションで実行する (ジャーナルの反映をまとめて1回でコミットするため) */
+    public void inTransaction(Runnable body) {
+        SQLiteDatabase db = helper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            body.run();
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * 1件追加する。item.id が設定済みならその id で、未設定なら採番して item.id に設定する
+     *  - 同じ id の行があれば置き換える (ジャーナルの再反映で二重にならないように)
+     */
+    public long insert(NoteItem item) {
+        ContentValues cv = toValues(item);
+        if (item.id > 0) {
+            cv.put(NoteDBHelper.COL_ID, item.id);
+        }
+        long id = helper.getWritableDatabase().insertWithOnConflict(NoteDBHelper.TABLE_NOTES, null, cv,
+                SQLiteDatabase.CONFLICT_REPLACE);
+        if (item.id <= 0) {
+            item.id = id;
+        }
+        return item.id;
+    }
+
+    public NoteImageStore getImageStore() {
+        return imageStore;
+    }
+
+    /**
+     * 1件更新する。使われなくなったかもしれない画像キー (変わっていなければ null) を返す
+     *  - 画像の削除はトランザクションのコミット後に releaseImageIfUnused で行う
+     */
+    public String update(NoteItem item) {
+        String oldKey = findImageKey(item.id);
+        helper.getWritableDatabase().update(NoteDBHelper.TABLE_NOTES, toValues(item),
+                NoteDBHelper.COL_ID + " = ?", new String[]{String.valueOf(item.id)});
+        return oldKey != null && !oldKey.equals(item.imageKey) ? oldKey : null;
+    }
+
+    /** 1件削除する。そのノートの画像キー (無ければ null) を返す */
+    public String delete(long id) {
+        String oldKey = findImageKey(id);
+        helper.getWritableDatabase().delete(NoteDBHelper.TABLE_NOTES,
+                NoteDBHelper.COL_ID + " = ?", new String[]{String.valueOf(id)});
+        return oldKey;
+    }
+
+    private String findImageKey(long id) {
+        Cursor c = helper.getReadableDatabase().query(NoteDBHelper.TABLE_NOTES,
+                new String[]{NoteDBHelper.COL_IMAGE},
+                NoteDBHelper.COL_ID + " = ?", new String[]{String.valueOf(id)},
+                null, null, null);
+        try {
+            return c.moveToFirst() ? c.getString(0) : null;
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * oldKey を参照している全ノート (科目を問わない) の画像を newKey に付け替える
+     */
+    public void replaceImageKey(String oldKey, String newKey) {
+        ContentValues cv = new ContentValues();
+        cv.put(NoteDBHelper.COL_IMAGE, newKey);
+        helper.getWritableDatabase().update(NoteDBHelper.TABLE_NOTES, cv,
+                NoteDBHelper.COL_IMAGE + " = ?", new String[]{oldKey});
+    }
+
+    /** 他のノート (別科目を含む) が同じ画像を使っていなければファイルを消す */
+    public void releaseImageIfUnused(String key) {
+        if (key == null) return;
+        long refs = DatabaseUtils.queryNumEntries(helper.getReadableDatabase(),
+                NoteDBHelper.TABLE_NOTES, NoteDBHelper.COL_IMAGE + " = ?", new String[]{key});
+        if (refs == 0) {
+            imageStore.delete(key);
+        }
+    }
+
+    private ContentValues toValues(NoteItem item) {
+        ContentValues cv = new ContentValues();
+        cv.put(NoteDBHelper.COL_SUBJECT, subject);
+        cv.put(NoteDBHelper.COL_CATEGORY, item.spinnerText);
+        cv.put(NoteDBHelper.COL_TEXT, item.editText);
+        cv.put(NoteDBHelper.COL_IMAGE, item.imageKey);
+        return cv;
+    }
+
+    // ========================
+    // 旧形式からの移行
+    // ========================
+    // 一覧のページ読み込みと全件読み込みが別スレッドから同時に来ても1回だけ移行する
+    private synchronized void migrateFromPrefsIfNeeded() {
+        String prefName = SUBJECT_LA.equals(subject) ? LEGACY_LA_PREF_NAME : LEGACY_CAL_PREF_NAME;
+        String key = SUBJECT_LA.equals(subject) ? LEGACY_LA_KEY : LEGACY_CAL_KEY;
+        // getSharedPreferences は数百MBになりうる文字列を丸ごと読むので、XML ファイルを直接流し読みする
+        File prefsFile = new File(new File(context.getApplicationInfo().dataDir, "shared_prefs"), prefName + ".xml");
+        if (!prefsFile.exists()) return;
+
+        SQLiteDatabase db = helper.getWritableDatabase();
+        try {
+            Reader value = LegacyNoteReader.openPrefsString(prefsFile, key);
+            if (value != null) {
+                LegacyNoteReader reader = new LegacyNoteReader(value, imageStore.newImageSink());
+                db.beginTransaction();
+                try {
+                    NoteItem item;
+                    while ((item = reader.next(NoteItem::new)) != null) {
+                        db.insert(NoteDBHelper.TABLE_NOTES, null, toValues(item));
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                    reader.close();
+                }
+            }
+        } catch (IOException e) {
+            // 読めなかった場合は旧データを残し、次回起動時にやり直す
+            e.printStackTrace();
+            return;
+        }
+        // 移行済みの旧データは削除 (このファイルには旧形式の一覧しか入っていない)
+        context.deleteSharedPreferences(prefName);
+    }
+}
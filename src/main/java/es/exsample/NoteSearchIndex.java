@@ -0,0 +1,289 @@
+package es.exsample;
+
+import android.graphics.Color;
+import android.text.SpannableString;
+import android.text.Spanned;
+import android.text.style.BackgroundColorSpan;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ノートの全文検索用の転置インデックス (メモリ上、1科目に1つ)
+ *  - 日本語は単語に区切れないので、文字の 2-gram を索引語にする (1文字の検索語は本文を走査)
+ *  - 全角/半角・大文字/小文字は NFKC + 小文字化で揃えてから索引する
+ *  - add / remove でノート1件分ずつ更新する (削除分が溜まったときだけ詰め直す)
+ *  - 検索語はスペース区切りで AND。2-gram で候補を絞ってから本文で一致を確かめる
+ *  - スコアは TF-IDF (タイトルの一致は本文の2倍)
+ *  - ポスティングは int 配列 (上位24bit: 文書番号, 下位8bit: 出現回数) で持ち、検索中は箱詰めしない
+ *  - スレッドセーフではない (NoteStore.Subject のロック内で使う)
+ */
+public class NoteSearchIndex {
+
+    private static final int TITLE_WEIGHT = 2;
+    private static final int TF_BITS = 8;
+    private static final int TF_MAX = (1 << TF_BITS) - 1;
+    // 削除済みの文書番号がこれ以上かつ有効な件数以上になったら詰め直す
+    private static final int COMPACT_THRESHOLD = 1024;
+
+    // 索引語ごとの (文書番号, 出現回数) の列 (追加順)
+    private static class Postings {
+        int[] data = new int[4];
+        int size;
+
+        void add(int value) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = value;
+        }
+    }
+
+    private final Map<String, Postings> postings = new HashMap<>();
+    private final Map<Long, Integer> slotOf = new HashMap<>();
+    // 文書番号 -> ノートID / 正規化済みのタイトルと本文 (削除済みは null)
+    private long[] ids = new long[64];
+    private String[] titles = new String[64];
+    private String[] texts = new String[64];
+    private int slotCount;
+    private int liveCount;
+
+    public void add(NoteItem item) {
+        remove(item.id);
+        index(item.id, normalize(item.spinnerText), normalize(item.editText));
+    }
+
+    public void remove(long id) {
+        Integer slot = slotOf.remove(id);
+        if (slot == null) return;
+        // ポスティングからは消さず、文書を無効にするだけ (検索時に読み飛ばす)
+        titles[slot] = null;
+        texts[slot] = null;
+        liveCount--;
+        int dead = slotCount - liveCount;
+        if (dead >= COMPACT_THRESHOLD && dead > liveCount) {
+            compact();
+        }
+    }
+
+    public void clear() {
+        postings.clear();
+        slotOf.clear();
+        Arrays.fill(titles, 0, slotCount, null);
+        Arrays.fill(texts, 0, slotCount, null);
+        slotCount = 0;
+        liveCount = 0;
+    }
+
+    public int size() {
+        return liveCount;
+    }
+
+    /**
+     * query に一致するノートID をスコアの高い順に返す (一致なしなら空)
+     */
+    public List<Long> search(String query) {
+        List<String> words = splitQuery(query);
+        if (words.isEmpty() || liveCount == 0) return Collections.emptyList();
+
+        // 検索語の 2-gram (重複なし) を、出現数の少ない順に当てていく
+        LinkedHashSet<String> termSet = new LinkedHashSet<>();
+        for (String w : words) {
+            for (int i = 0; i + 2 <= w.length(); i++) {
+                termSet.add(w.substring(i, i + 2));
+            }
+        }
+        List<Postings> lists = new ArrayList<>();
+        for (String t : termSet) {
+            Postings p = postings.get(t);
+            if (p == null) return Collections.emptyList();
+            lists.add(p);
+        }
+        Collections.sort(lists, (a, b) -> Integer.compare(a.size, b.size));
+
+        int n = slotCount;
+        int[] hits = new int[n];       // 何個目の索引語まで一致したか
+        float[] score = new float[n];
+        for (int round = 0; round < lists.size(); round++) {
+            Postings p = lists.get(round);
+            float idf = (float) Math.log(1.0 + (double) liveCount / p.size);
+            for (int k = 0; k < p.size; k++) {
+                int v = p.data[k];
+                int slot = v >>> TF_BITS;
+                if (hits[slot] != round) continue;
+                hits[slot] = round + 1;
+                score[slot] += (v & TF_MAX) * idf;
+            }
+        }
+
+        // 2-gram が全部あっても語として並んでいるとは限らないので確かめる
+        int rounds = lists.size();
+        long[] ranked = new long[n];
+        int found = 0;
+        candidates:
+        for (int slot = 0; slot < n; slot++) {
+            if (hits[slot] != rounds || texts[slot] == null) continue;
+            float s = score[slot];
+            for (String w : words) {
+                if (w.length() == 1) {
+                    // 1文字の語は索引に無いので出現回数をその場で数える
+                    int tf = count(titles[slot], w) * TITLE_WEIGHT + count(texts[slot], w);
+                    if (tf == 0) continue candidates;
+                    s += tf;
+                } else if (w.length() > 2
+                        && !titles[slot].contains(w) && !texts[slot].contains(w)) {
+                    continue candidates;
+                }
+            }
+            // 上位32bit: スコア (非負の float はビット列の大小で比べられる), 下位: 追加順
+            ranked[found++] = ((long) Float.floatToIntBits(s) << 32) | (Integer.MAX_VALUE - slot);
+        }
+        Arrays.sort(ranked, 0, found);
+
+        List<Long> result = new ArrayList<>(found);
+        for (int i = found - 1; i >= 0; i--) {
+            int slot = Integer.MAX_VALUE - (int) ranked[i];
+            result.add(ids[slot]);
+        }
+        return result;
+    }
+
+    /**
+     * text 中の query の一致箇所に背景色を付ける (一致なし・空の検索語ならそのまま返す)
+     */
+    public static CharSequence highlight(String text, String query) {
+        List<String> words = splitQuery(query);
+        if (text == null || words.isEmpty()) return text;
+
+        // 正規化後の位置 -> 元の文字列の位置 の対応を作る
+        // 索引と同じ結果になるよう、合成される文字 (か + 濁点、半角カナ + ﾞ など) はまとめて正規化する
+        StringBuilder norm = new StringBuilder();
+        List<Integer> origin = new ArrayList<>();
+        for (int i = 0; i < text.length(); ) {
+            int end = i + Character.charCount(text.codePointAt(i));
+            while (end < text.length() && composesWithPrevious(text.codePointAt(end))) {
+                end += Character.charCount(text.codePointAt(end));
+            }
+            String n = normalize(text.substring(i, end));
+            for (int k = 0; k < n.length(); k++) {
+                origin.add(i);
+            }
+            norm.append(n);
+            i = end;
+        }
+        origin.add(text.length());
+
+        SpannableString span = null;
+        String s = norm.toString();
+        for (String w : words) {
+            int from = 0;
+            int hit;
+            while ((hit = s.indexOf(w, from)) >= 0) {
+                if (span == null) span = new SpannableString(text);
+                int end = hit + w.length();
+                int origStart = origin.get(hit);
+                // 1文字が複数文字に正規化された場合も、元の1文字分は必ず含める
+                int origEnd = Math.max(origin.get(end), origStart + 1);
+                span.setSpan(new BackgroundColorSpan(Color.YELLOW), origStart, origEnd,
+                        Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+                from = end;
+            }
+        }
+        return span != null ? span : text;
+    }
+
+    // 直前の文字と合わせて NFKC で1文字に合成されうる文字 (結合文字・半角の濁点/半濁点・ハングルの中声/終声)
+    private static boolean composesWithPrevious(int cp) {
+        switch (Character.getType(cp)) {
+            case Character.NON_SPACING_MARK:
+            case Character.COMBINING_SPACING_MARK:
+            case Character.ENCLOSING_MARK:
+                return true;
+        }
+        return cp == 0xFF9E || cp == 0xFF9F || (cp >= 0x1160 && cp <= 0x11FF);
+    }
+
+    static String normalize(String s) {
+        if (s == null) return "";
+        return Normalizer.normalize(s, Normalizer.Form.NFKC).toLowerCase();
+    }
+
+    private void index(long id, String title, String text) {
+        if (slotCount == ids.length) {
+            int cap = slotCount * 2;
+            ids = Arrays.copyOf(ids, cap);
+            titles = Arrays.copyOf(titles, cap);
+            texts = Arrays.copyOf(texts, cap);
+        }
+        int slot = slotCount++;
+        ids[slot] = id;
+        titles[slot] = title;
+        texts[slot] = text;
+        slotOf.put(id, slot);
+        liveCount++;
+
+        Map<String, Integer> tf = new HashMap<>();
+        countBigrams(title, TITLE_WEIGHT, tf);
+        countBigrams(text, 1, tf);
+        for (Map.Entry<String, Integer> e : tf.entrySet()) {
+            Postings p = postings.get(e.getKey());
+            if (p == null) {
+                p = new Postings();
+                postings.put(e.getKey(), p);
+            }
+            p.add((slot << TF_BITS) | Math.min(e.getValue(), TF_MAX));
+        }
+    }
+
+    // 有効な文書だけで索引を作り直す
+    private void compact() {
+        int n = slotCount;
+        long[] oldIds = ids;
+        String[] oldTitles = titles;
+        String[] oldTexts = texts;
+        ids = new long[Math.max(64, liveCount * 2)];
+        titles = new String[ids.length];
+        texts = new String[ids.length];
+        postings.clear();
+        slotOf.clear();
+        slotCount = 0;
+        liveCount = 0;
+        for (int slot = 0; slot < n; slot++) {
+            if (oldTexts[slot] != null) {
+                index(oldIds[slot], oldTitles[slot], oldTexts[slot]);
+            }
+        }
+    }
+
+    private static List<String> splitQuery(String query) {
+        List<String> words = new ArrayList<>();
+        if (query == null) return words;
+        for (String w : normalize(query).split("\\s+")) {
+            if (!w.isEmpty()) words.add(w);
+        }
+        return words;
+    }
+
+    private static void countBigrams(String s, int weight, Map<String, Integer> tf) {
+        for (int i = 0; i + 2 <= s.length(); i++) {
+            if (Character.isWhitespace(s.charAt(i)) || Character.isWhitespace(s.charAt(i + 1))) continue;
+            String term = s.substring(i, i + 2);
+            Integer v = tf.get(term);
+            tf.put(term, v == null ? weight : v + weight);
+        }
+    }
+
+    private static int count(String s, String w) {
+        int c = 0;
+        for (int i = s.indexOf(w); i >= 0; i = s.indexOf(w, i + 1)) {
+            c++;
+        }
+        return c;
+    }
+}
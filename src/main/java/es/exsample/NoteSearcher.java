@@ -0,0 +1,105 @@
+package es.exsample;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import androidx.annotation.NonNull;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleEventObserver;
+import androidx.lifecycle.LifecycleOwner;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 入力しながらの全文検索 (一覧画面ごとに1つ)
+ *  - 入力が DEBOUNCE_MS 止まってから検索する (打鍵ごとには検索しない)
+ *  - 検索はバックグラウンドで行い、結果は UI スレッドのコールバックで返す
+ *  - 新しい検索を始めたら古い検索は取り消し、古い結果は捨てる
+ *  - Activity が破棄されたら検索を止める
+ */
+public class NoteSearcher<T extends NoteItem> implements LifecycleEventObserver {
+
+    public interface Callback<T> {
+        /**
+         * @param queryMillis 検索そのものにかかった時間
+         * @param inputAt     最後の入力の時刻 (SystemClock.uptimeMillis)
+         */
+        void onResults(String query, List<T> results, long queryMillis, long inputAt);
+    }
+
+    static final long DEBOUNCE_MS = 200;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final NoteStore.Subject<T> notes;
+    private final Callback<T> callback;
+
+    private volatile int generation;   // 検索を始める/取り消すたびに増やす
+    private Future<?> running;
+    private String pendingQuery;
+    private long inputAt;
+    private final Runnable debounced = () -> run(pendingQuery);
+
+    public NoteSearcher(AppCompatActivity activity, NoteStore.Subject<T> notes, Callback<T> callback) {
+        this.notes = notes;
+        this.callback = callback;
+        activity.getLifecycle().addObserver(this);
+    }
+
+    /** 入力が変わった (少し待ってから検索する) */
+    public void onQueryChanged(String query) {
+        inputAt = SystemClock.uptimeMillis();
+        pendingQuery = query;
+        mainHandler.removeCallbacks(debounced);
+        mainHandler.postDelayed(debounced, DEBOUNCE_MS);
+    }
+
+    /** 待たずに検索する (検索ボタン、データ変更後の再検索など) */
+    public void searchNow(String query) {
+        mainHandler.removeCallbacks(debounced);
+        inputAt = SystemClock.uptimeMillis();
+        run(query);
+    }
+
+    /** 待機中・実行中の検索を取り消す (結果は返らない) */
+    public void cancel() {
+        generation++;
+        mainHandler.removeCallbacks(debounced);
+        if (running != null) {
+            running.cancel(true);
+            running = null;
+        }
+    }
+
+    @Override
+    public void onStateChanged(@NonNull LifecycleOwner source, @NonNull Lifecycle.Event event) {
+        if (event == Lifecycle.Event.ON_DESTROY) {
+            cancel();
+            executor.shutdownNow();
+            source.getLifecycle().removeObserver(this);
+        }
+    }
+
+    private void run(String query) {
+        cancel();
+        int gen = generation;
+        long startedAt = inputAt;
+        running = executor.submit(() -> {
+            // 待っている間に次の検索が始まっていたら何もしない
+            if (gen != generation) return;
+            long t0 = SystemClock.elapsedRealtimeNanos();
+            List<T> results = notes.search(query);
+            long queryMillis = (SystemClock.elapsedRealtimeNanos() - t0) / 1_000_000;
+            if (Thread.currentThread().isInterrupted()) return;
+            mainHandler.post(() -> {
+                if (gen != generation) return;
+                running = null;
+                callback.onResults(query, results, queryMillis, startedAt);
+            });
+        });
+    }
+}
@@ -0,0 +1,577 @@
+package es.exsample;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * プロセス全体で1つのノート置き場 (FukusyuKunApp が保持)
+ *  - 科目ごとに読み込んだノートをメモリに持ち、一覧/編集/拡大表示の各画面で共有する
+ *  - 読み込みは科目ごとに最初の1回だけ。id 指定の取得はメモリから O(1)
+ *  - 読み込みが終わるまでの一覧表示は loadHeaders でページ単位に SQLite から読む (NotePager)
+ *  - 書き込みはメモリを先に更新し、変更をジャーナル (NoteJournal) に積む
+ *    COMMIT_DELAY_MS の間の変更はまとめて1回の fsync で書き (group commit)、
+ *    SQLite へはさらにまとめて1トランザクションで反映する。反映前に終了した分は次回起動時に反映する
+ *  - 画面に渡すノートはコピー。メモリ上のインスタンスは書き換えずに差し替える
+ *  - 全文検索のインデックス (NoteSearchIndex) とタイトル別の一覧も書き込みのたびに1件ずつ更新する
+ */
+public class NoteStore {
+
+    public static NoteStore get(Context context) {
+        return ((FukusyuKunApp) context.getApplicationContext()).getNoteStore();
+    }
+
+    // 変更を書き込んでから保存されるまでの時間 (この間に積まれた変更を1回の fsync で書く)
+    static final long COMMIT_DELAY_MS = 20;
+    // ジャーナルから SQLite へ反映する間隔と、それを待たずに反映する件数
+    static final long COMPACT_DELAY_MS = 1000;
+    static final int COMPACT_MAX_RECORDS = 256;
+
+    // ジャーナルと SQLite への書き込みは全てこのスレッドで順番に行う
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final NoteImageStore imageStore;
+    private final NoteRepository repository;   // 科目をまたぐ処理用
+    private final Subject<LinearAlgebraActivity.LAItem> linearAlgebra;
+    private final Subject<CalculusActivity.CalItem> calculus;
+    private long nextId = 0;
+
+    private final NoteJournal journal;
+    // 前回のジャーナルを SQLite に反映し終えたら 0 になる
+    private final CountDownLatch recovered = new CountDownLatch(1);
+    private boolean commitScheduled = false;   // synchronized (this)
+    // 以下は書き込みスレッドだけが触る
+    private final List<NoteJournal.Record> unapplied = new ArrayList<>();   // ジャーナルに書いたが SQLite には未反映
+    private ScheduledFuture<?> compaction;
+    // 次の反映の後で、使われていなければ消す画像
+    private final Set<String> pendingReleases = new HashSet<>();
+    // replaceImageKey で付け替えた古いキー -> 新しいキー (編集画面が古いキーのまま保存しても付け替える)
+    private final Map<String, String> replacedImageKeys = new ConcurrentHashMap<>();
+
+    NoteStore(Context context) {
+        imageStore = new NoteImageStore(context);
+        linearAlgebra = new Subject<>(NoteRepository.SUBJECT_LA,
+                new NoteRepository(context, NoteRepository.SUBJECT_LA), LinearAlgebraActivity.LAItem::new);
+        calculus = new Subject<>(NoteRepository.SUBJECT_CAL,
+                new NoteRepository(context, NoteRepository.SUBJECT_CAL), CalculusActivity.CalItem::new);
+        repository = linearAlgebra.repository;
+        journal = new NoteJournal(new File(context.getFilesDir(), "note_journal"));
+        // 他のどの書き込みより先に
+        writer.execute(this::recover);
+    }
+
+    public Subject<LinearAlgebraActivity.LAItem> linearAlgebra() {
+        return linearAlgebra;
+    }
+
+    public Subject<CalculusActivity.CalItem> calculus() {
+        return calculus;
+    }
+
+    public NoteImageStore getImageStore() {
+        return imageStore;
+    }
+
+    void preloadInBackground() {
+        writer.execute(() -> {
+            linearAlgebra.ensureLoaded();
+            calculus.ensureLoaded();
+            allocateId(0);
+        });
+    }
+
+    /**
+     * 保存待ちの変更を SQLite に反映し終えるまで待つ (ベンチマーク用のデータ投入など)
+     *  - バックグラウンドで呼ぶこと
+     */
+    public void flush() throws InterruptedException {
+        try {
+            writer.submit(this::compact).get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /** 全科目のノートが参照している画像キー (SQLite に反映済みの分) */
+    public List<String> loadAllImageKeys() {
+        awaitRecovered();
+        return repository.loadAllImageKeys();
+    }
+
+    /**
+     * どのノートにも使われていなければ画像ファイルを消す
+     *  - 先に積まれた変更を SQLite に反映してから数えるので、保存待ちのノートの画像は消えない
+     */
+    public void releaseImageIfUnused(String key) {
+        if (key == null) return;
+        synchronized (pendingReleases) {
+            pendingReleases.add(key);
+        }
+        scheduleCommit();
+    }
+
+    /**
+     * 画像の再エンコードなどでキーが変わったとき、全科目のノートを付け替える
+     *  - 付け替える前に開いた編集画面が古いキーのまま update しても、新しいキーで保存される
+     */
+    public void replaceImageKey(String oldKey, String newKey) {
+        replacedImageKeys.put(oldKey, newKey);
+        // 未読み込みのままだと、後から読んだ古いキーで上書きしてしまうので先に読む
+        linearAlgebra.ensureLoaded();
+        calculus.ensureLoaded();
+        linearAlgebra.replaceImageKeyInMemory(oldKey, newKey);
+        calculus.replaceImageKeyInMemory(oldKey, newKey);
+        log(NoteJournal.Record.replaceImage(oldKey, newKey));
+    }
+
+    // 行IDは科目をまたいで一意 (SQLite の主キー)。count 件分を確保して先頭を返す
+    private synchronized long allocateId(int count) {
+        if (nextId == 0) {
+            awaitRecovered();
+            nextId = repository.maxId() + 1;
+        }
+        long first = nextId;
+        nextId += count;
+        return first;
+    }
+
+    // ========================
+    // ジャーナル
+    // ========================
+    private void log(NoteJournal.Record record) {
+        journal.append(record);
+        scheduleCommit();
+    }
+
+    private void scheduleCommit() {
+        synchronized (this) {
+            if (commitScheduled) return;
+            commitScheduled = true;
+        }
+        writer.schedule(this::commit, COMMIT_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    // 積まれた変更をまとめてジャーナルに書く (fsync 1回)
+    private void commit() {
+        synchronized (this) {
+            commitScheduled = false;
+        }
+        List<NoteJournal.Record> batch = journal.drain();
+        NoteMetrics.count(NoteMetrics.STORE_RECORDS, batch.size());
+        try (NoteMetrics.Section ignored = NoteMetrics.begin(NoteMetrics.STORE_COMMIT)) {
+            journal.write(batch);
+        } catch (IOException e) {
+            // ジャーナルに書けなければ待たずに SQLite に反映する
+            e.printStackTrace();
+            unapplied.addAll(batch);
+            compact();
+            return;
+        }
+        unapplied.addAll(batch);
+        if (unapplied.size() >= COMPACT_MAX_RECORDS) {
+            compact();
+        } else if (compaction == null) {
+            compaction = writer.schedule(this::compact, COMPACT_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // ジャーナルの変更を1トランザクションで SQLite に反映し、ジャーナルを空にする
+    private void compact() {
+        if (compaction != null) {
+            compaction.cancel(false);
+            compaction = null;
+        }
+        // 解放の依頼を先に取り出す (依頼より前に積まれた変更は下の drain に必ず含まれる)
+        Set<String> released;
+        synchronized (pendingReleases) {
+            released = new HashSet<>(pendingReleases);
+            pendingReleases.clear();
+        }
+        // まだジャーナルに書いていない分もここで一緒に反映する
+        unapplied.addAll(journal.drain());
+        if (unapplied.isEmpty() && released.isEmpty()) return;
+
+        try (NoteMetrics.Section ignored = NoteMetrics.begin(NoteMetrics.STORE_COMPACT)) {
+            apply(unapplied, released);
+        }
+        unapplied.clear();
+        try {
+            journal.truncate();
+        } catch (IOException e) {
+            // 残っても次回起動時に同じ内容をもう一度反映するだけ
+            e.printStackTrace();
+        }
+        for (String key : released) {
+            repository.releaseImageIfUnused(key);
+        }
+    }
+
+    // 前回の起動で SQLite に反映されなかった変更を反映する
+    private void recover() {
+        try {
+            List<NoteJournal.Record> records = journal.readAll();
+            if (records.isEmpty()) return;
+            Set<String> released = new HashSet<>();
+            apply(records, released);
+            journal.truncate();
+            for (String key : released) {
+                repository.releaseImageIfUnused(key);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            recovered.countDown();
+        }
+    }
+
+    // SQLite を直接読む前に、前回のジャーナルの反映を待つ
+    private void awaitRecovered() {
+        try {
+            recovered.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // records を順に1トランザクションで反映する。使われなくなったかもしれない画像キーを released に足す
+    private void apply(List<NoteJournal.Record> records, Set<String> released) {
+        repository.inTransaction(() -> {
+            for (NoteJournal.Record r : records) {
+                switch (r.type) {
+                    case NoteJournal.INSERT:
+                        repositoryOf(r.subject).insert(r.toItem(NoteItem::new));
+                        break;
+                    case NoteJournal.UPDATE:
+                        addIfNotNull(released, repositoryOf(r.subject).update(r.toItem(NoteItem::new)));
+                        break;
+                    case NoteJournal.DELETE:
+                        addIfNotNull(released, repositoryOf(r.subject).delete(r.id));
+                        break;
+                    case NoteJournal.REPLACE_IMAGE:
+                        repository.replaceImageKey(r.imageKey, r.newImageKey);
+                        break;
+                }
+            }
+        });
+    }
+
+    // 付け替え済みなら新しいキー (付け替えが続いていれば最後のキー)
+    private String currentImageKey(String key) {
+        for (int i = 0; key != null && i < 8; i++) {
+            String next = replacedImageKeys.get(key);
+            if (next == null) break;
+            key = next;
+        }
+        return key;
+    }
+
+    private NoteRepository repositoryOf(String subject) {
+        return NoteRepository.SUBJECT_CAL.equals(subject) ? calculus.repository : linearAlgebra.repository;
+    }
+
+    private static void addIfNotNull(Set<String> set, String key) {
+        if (key != null) set.add(key);
+    }
+
+    /**
+     * 1科目分のノート (id 昇順)
+     */
+    /** Subject.get(id, callback) の結果 (UI スレッド) */
+    public interface OnNoteLoaded<T> {
+        void onNoteLoaded(T item);
+    }
+
+    public class Subject<T extends NoteItem> {
+
+        private final String name;   // 科目 (NoteRepository.SUBJECT_*)
+        private final NoteRepository repository;
+        private final NoteItem.Factory<T> factory;
+        private final NoteChangeLog changeLog;
+
+        private volatile List<T> items;   // 全件の読み込みが終わるまで null
+        private Map<Long, T> byId;
+        // タイトル (Spinner の項目) -> そのタイトルのノート (id 昇順)
+        private final Map<String, List<T>> byCategory = new HashMap<>();
+        private final NoteSearchIndex searchIndex = new NoteSearchIndex();
+
+        Subject(String name, NoteRepository repository, NoteItem.Factory<T> factory) {
+            this.name = name;
+            this.repository = repository;
+            this.factory = factory;
+            this.changeLog = repository.getChangeLog();
+        }
+
+        synchronized void ensureLoaded() {
+            if (items != null) return;
+            awaitRecovered();
+            List<T> loaded = repository.loadAll(factory);
+            byId = new HashMap<>();
+            for (T it : loaded) {
+                byId.put(it.id, it);
+                bucketOf(it).add(it);
+                searchIndex.add(it);
+            }
+            items = loaded;
+        }
+
+        /** 全件がメモリに読み込み済みか (読み込み中でも待たずに返す) */
+        public boolean isLoaded() {
+            return items != null;
+        }
+
+        /** 全件の読み込みが終わったら UI スレッドで r を呼ぶ (読み込み済みでも非同期に呼ぶ) */
+        public void whenLoaded(Runnable r) {
+            writer.execute(() -> {
+                ensureLoaded();
+                mainHandler.post(r);
+            });
+        }
+
+        /**
+         * id が afterId より大きいノートの見出しを id 順に最大 limit 件 (本文は先頭だけ)
+         *  - 全件の読み込みを待たずに SQLite から読む。バックグラウンドで呼ぶこと
+         */
+        public List<T> loadHeaders(long afterId, int limit) {
+            awaitRecovered();
+            return repository.loadHeaders(afterId, limit, factory);
+        }
+
+        /** 全件 (表示用。要素は書き換えないこと) */
+        public synchronized List<T> getAll() {
+            ensureLoaded();
+            return new ArrayList<>(items);
+        }
+
+        /**
+         * id で1件取得 (編集用のコピー)。無ければ null
+         *  - 読み込み前はジャーナルの反映と SQLite の読み込みを待つので、UI スレッドからは get(id, callback) を使う
+         */
+        public T get(long id) {
+            // 読み込み中なら全件を待たず、その1件だけを読む (未保存の変更は読み込み前には無い)
+            if (!isLoaded()) {
+                awaitRecovered();
+                return repository.find(id, factory);
+            }
+            synchronized (this) {
+                T it = byId.get(id);
+                return it != null ? copyOf(it) : null;
+            }
+        }
+
+        /**
+         * id で1件取得して UI スレッドで受け取る (編集用のコピー。無ければ null)
+         *  - 読み込み済みならその場で呼ぶ (画面の作成中に表示まで済む)
+         *  - 読み込み前 (復元された画面からの起動直後など) は書き込みスレッドでその1件だけを読む
+         */
+        public void get(long id, OnNoteLoaded<T> callback) {
+            if (isLoaded()) {
+                callback.onNoteLoaded(get(id));
+                return;
+            }
+            writer.execute(() -> {
+                T item = get(id);
+                mainHandler.post(() -> callback.onNoteLoaded(item));
+            });
+        }
+
+        /** タイトルが category のノート (id 昇順、表示用。要素は書き換えないこと) */
+        public synchronized List<T> getByCategory(String category) {
+            ensureLoaded();
+            List<T> bucket = byCategory.get(category);
+            return bucket != null ? new ArrayList<>(bucket) : new ArrayList<>();
+        }
+
+        public synchronized int size() {
+            ensureLoaded();
+            return items.size();
+        }
+
+        /** 現在のデータのバージョン (書き込みのたびに増える) */
+        public long getVersion() {
+            return changeLog.getVersion();
+        }
+
+        /** 追加して id を item.id に設定する。保存はバックグラウンド (COMMIT_DELAY_MS 後) */
+        public synchronized void add(T item) {
+            ensureLoaded();
+            item.id = allocateId(1);
+            log(NoteJournal.Record.insert(name, addInMemory(item)));
+        }
+
+        /**
+         * まとめて追加する (一括取り込み用)。id は list の順に振って各 item.id に設定する
+         *  - group commit を待たず、全件を1つのトランザクションで SQLite に保存する
+         */
+        public synchronized void addAll(List<T> list) {
+            if (list.isEmpty()) return;
+            ensureLoaded();
+            long id = allocateId(list.size());
+            for (T item : list) {
+                item.id = id++;
+                journal.append(NoteJournal.Record.insert(name, addInMemory(item)));
+            }
+            writer.execute(NoteStore.this::compact);
+        }
+
+        private T addInMemory(T item) {
+            T stored = copyOf(item);
+            items.add(stored);
+            byId.put(stored.id, stored);
+            bucketOf(stored).add(stored);
+            searchIndex.add(stored);
+            changeLog.record(NoteChangeLog.INSERT, stored.id);
+            return stored;
+        }
+
+        public synchronized void update(T item) {
+            ensureLoaded();
+            T old = byId.get(item.id);
+            if (old == null) return;
+            T stored = copyOf(item);
+            // 編集中に再エンコードで画像が付け替えられていたら、消える古いキーではなく新しいキーで保存する
+            stored.imageKey = currentImageKey(stored.imageKey);
+            items.set(indexOfSorted(items, stored.id), stored);
+            byId.put(stored.id, stored);
+            replaceInBucket(old, stored);
+            searchIndex.add(stored);
+            changeLog.record(NoteChangeLog.UPDATE, stored.id);
+            log(NoteJournal.Record.update(name, stored));
+        }
+
+        public synchronized void delete(long id) {
+            ensureLoaded();
+            T old = byId.remove(id);
+            if (old == null) return;
+            items.remove(indexOfSorted(items, id));
+            List<T> bucket = bucketOf(old);
+            bucket.remove(indexOfSorted(bucket, id));
+            searchIndex.remove(id);
+            changeLog.record(NoteChangeLog.DELETE, id);
+            log(NoteJournal.Record.delete(name, id));
+        }
+
+        /**
+         * 本文・タイトルの全文検索。スコアの高い順 (表示用。要素は書き換えないこと)
+         *  - 一致箇所の強調表示は NoteSearchIndex.highlight で行う
+         */
+        public synchronized List<T> search(String query) {
+            ensureLoaded();
+            List<T> result = new ArrayList<>();
+            for (Long id : searchIndex.search(query)) {
+                result.add(byId.get(id));
+            }
+            return result;
+        }
+
+        /**
+         * sinceVersion 以降の変更を list に反映する (id 昇順を保つ)
+         *  - 変更履歴で追えないほど古い場合は全件に置き換える
+         */
+        public synchronized void applyChangesSince(long sinceVersion, List<T> list) {
+            ensureLoaded();
+            List<NoteChangeLog.Change> changes = changeLog.changesSince(sinceVersion);
+            if (changes == null) {
+                list.clear();
+                list.addAll(items);
+                return;
+            }
+            for (NoteChangeLog.Change ch : changes) {
+                int idx = indexOfId(list, ch.noteId);
+                T current = byId.get(ch.noteId);
+                if (current == null) {
+                    if (idx >= 0) list.remove(idx);
+                } else if (idx >= 0) {
+                    list.set(idx, current);
+                } else {
+                    list.add(current);
+                }
+            }
+        }
+
+        synchronized void replaceImageKeyInMemory(String oldKey, String newKey) {
+            if (items == null) return;
+            for (int i = 0; i < items.size(); i++) {
+                T it = items.get(i);
+                if (oldKey.equals(it.imageKey)) {
+                    T replaced = copyOf(it);
+                    replaced.imageKey = newKey;
+                    items.set(i, replaced);
+                    byId.put(replaced.id, replaced);
+                    replaceInBucket(it, replaced);
+                    changeLog.record(NoteChangeLog.UPDATE, replaced.id);
+                }
+            }
+        }
+
+        private List<T> bucketOf(T item) {
+            List<T> bucket = byCategory.get(item.spinnerText);
+            if (bucket == null) {
+                bucket = new ArrayList<>();
+                byCategory.put(item.spinnerText, bucket);
+            }
+            return bucket;
+        }
+
+        // タイトルが変わっていれば別の一覧へ移す (id 昇順を保つ)
+        private void replaceInBucket(T old, T replaced) {
+            List<T> from = bucketOf(old);
+            int idx = indexOfSorted(from, old.id);
+            if (Objects.equals(old.spinnerText, replaced.spinnerText)) {
+                from.set(idx, replaced);
+                return;
+            }
+            from.remove(idx);
+            List<T> to = bucketOf(replaced);
+            int pos = indexOfSorted(to, replaced.id);
+            to.add(pos >= 0 ? pos : -pos - 1, replaced);
+        }
+
+        private T copyOf(T src) {
+            T copy = factory.create(src.imageKey, src.spinnerText, src.editText);
+            copy.id = src.id;
+            return copy;
+        }
+    }
+
+    // id 昇順のリストから二分探索 (無ければ -(挿入位置) - 1)
+    private static int indexOfSorted(List<? extends NoteItem> list, long id) {
+        int lo = 0;
+        int hi = list.size() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long v = list.get(mid).id;
+            if (v < id) {
+                lo = mid + 1;
+            } else if (v > id) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -lo - 1;
+    }
+
+    private static int indexOfId(List<? extends NoteItem> list, long id) {
+        for (int i = list.size() - 1; i >= 0; i--) {
+            if (list.get(i).id == id) return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,20 @@
+package es.exsample;
+
+import androidx.recyclerview.widget.RecyclerView;
+import android.view.View;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+//ノート一覧の1行分のViewを扱うクラス
+public class NoteViewHolder extends RecyclerView.ViewHolder {
+    ImageView thumbnail; //サムネイル画像
+    TextView title; //Spinnerで選んだタイトル
+    TextView text; //入力テキスト
+
+    public NoteViewHolder(View itemView) {
+        super(itemView);
+        this.thumbnail = itemView.findViewById(R.id.note_thumbnail);
+        this.title = itemView.findViewById(R.id.note_title);
+        this.text = itemView.findViewById(R.id.note_text);
+    }
+}
@@ -0,0 +1,146 @@
+package es.exsample;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LruCache;
+import android.widget.ImageView;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * 一覧用サムネイルの非同期読み込み
+ *  - デコードはバックグラウンドスレッドで行い、結果だけ UI スレッドで ImageView に設定
+ *  - デコード済みサムネイルはノートID をキーに LRU キャッシュ (MemoryTelemetry.budgetBytes の 1/4 まで)
+ *  - メモリが足りなくなったら trim で段階的に減らす (表示中の ImageView の画像はそのまま)
+ *  - 行が再利用に回されたら読み込みを取り消す (NoteListAdapter.onViewRecycled)。ウィンドウから外れただけでは
+ *    取り消さない (RecyclerView は行をキャッシュに外して、再バインドせずに戻すことがある)
+ *  - 保存済みの小さいサムネイルファイルだけを読む (無いものは backfillMissing で補完)
+ *  - load / cancel は UI スレッドから呼ぶこと
+ */
+public class ThumbnailLoader {
+
+    private static ThumbnailLoader instance;
+
+    public static synchronized ThumbnailLoader getInstance(Context context) {
+        if (instance == null) {
+            Context app = context.getApplicationContext();
+            instance = new ThumbnailLoader(new NoteImageStore(app), MemoryTelemetry.budgetBytes(app) / 4);
+        }
+        return instance;
+    }
+
+    // キャッシュ値: 画像が差し替えられたノートを古いサムネイルで表示しないよう imageKey も持つ
+    private static class Entry {
+        final String imageKey;
+        final Bitmap bitmap;
+        Entry(String imageKey, Bitmap bitmap) {
+            this.imageKey = imageKey;
+            this.bitmap = bitmap;
+        }
+    }
+
+    private final NoteImageStore store;
+    private final LruCache<Long, Entry> cache;
+    private final ExecutorService executor = Executors.newFixedThreadPool(2);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Map<ImageView, Future<?>> pending = new HashMap<>();
+    private boolean backfillStarted = false;
+
+    private ThumbnailLoader(NoteImageStore store, long maxBytes) {
+        this.store = store;
+        // KB単位
+        int maxKb = (int) (maxBytes / 1024);
+        cache = new LruCache<Long, Entry>(maxKb) {
+            @Override
+            protected int sizeOf(Long key, Entry value) {
+                return value.bitmap.getByteCount() / 1024;
+            }
+        };
+    }
+
+    public void load(long noteId, String imageKey, ImageView target) {
+        cancel(target);
+        target.setTag(R.id.thumbnail_note_id, noteId);
+
+        Entry hit = cache.get(noteId);
+        if (hit != null && hit.imageKey.equals(imageKey)) {
+            NoteMetrics.count(NoteMetrics.THUMB_HIT, 1);
+            target.setImageBitmap(hit.bitmap);
+            return;
+        }
+        NoteMetrics.count(NoteMetrics.THUMB_MISS, 1);
+
+        target.setImageResource(android.R.drawable.ic_menu_gallery);
+        Future<?> future = executor.submit(() -> {
+            Bitmap bmp;
+            try (NoteMetrics.Section ignored = NoteMetrics.begin(NoteMetrics.THUMB_DECODE)) {
+                bmp = store.decodeThumbnail(imageKey);
+            }
+            if (Thread.currentThread().isInterrupted()) return;
+            mainHandler.post(() -> deliver(noteId, imageKey, bmp, target));
+        });
+        pending.put(target, future);
+    }
+
+    /** キャッシュ済みのサムネイル (無ければ null)。拡大表示の下絵に使う */
+    public Bitmap peek(long noteId, String imageKey) {
+        Entry hit = cache.get(noteId);
+        return hit != null && hit.imageKey.equals(imageKey) ? hit.bitmap : null;
+    }
+
+    /**
+     * サムネイルファイルが無い既存ノート (アップデート前のデータ) の分を
+     * バックグラウンドで作成する。プロセスごとに1回だけ
+     */
+    public void backfillMissing(NoteStore noteStore) {
+        if (backfillStarted) return;
+        backfillStarted = true;
+        executor.submit(() -> {
+            for (String key : noteStore.loadAllImageKeys()) {
+                if (!store.hasThumbnail(key)) {
+                    store.decodeThumbnail(key);
+                }
+            }
+        });
+    }
+
+    /** onTrimMemory の段階 (BitmapPool.trimTier) に応じてキャッシュを減らす */
+    public void trim(int tier) {
+        if (tier >= BitmapPool.TIER_CRITICAL) {
+            cache.evictAll();
+        } else if (tier >= BitmapPool.TIER_LOW) {
+            cache.trimToSize(cache.maxSize() / 2);
+        }
+    }
+
+    public long cachedBytes() {
+        return cache.size() * 1024L;
+    }
+
+    public void cancel(ImageView target) {
+        Future<?> future = pending.remove(target);
+        if (future != null) {
+            future.cancel(true);
+        }
+        target.setTag(R.id.thumbnail_note_id, null);
+    }
+
+    private void deliver(long noteId, String imageKey, Bitmap bmp, ImageView target) {
+        if (bmp != null) {
+            cache.put(noteId, new Entry(imageKey, bmp));
+        }
+        // 取り消し済み・別ノートに使い回し済みなら表示しない
+        Object tag = target.getTag(R.id.thumbnail_note_id);
+        if (!(tag instanceof Long) || (Long) tag != noteId) return;
+        pending.remove(target);
+        if (bmp != null) {
+            target.setImageBitmap(bmp);
+        }
+    }
+}
@@ -0,0 +1,348 @@
+package es.exsample;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.AttributeSet;
+import android.util.LruCache;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.view.View;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 拡大表示用のズームできる画像ビュー
+ *  - 画像全体はデコードせず、BitmapRegionDecoder で表示中の範囲のタイルだけをデコード
+ *  - ズーム倍率に合わせて inSampleSize を選ぶ (縮小表示中は粗いタイル)
+ *  - 先に小さいプレビュー (サムネイル) を引き伸ばして表示し、鮮明なタイルが届いたら上に重ねる
+ *  - プレビューが表示の大きさ以上なら (拡大表示用に先読みした画像など) タイルはデコードしない
+ *  - ピンチでズーム、ドラッグで移動、ダブルタップで全体表示 / 2倍を切り替え
+ *  - タイルのキャッシュは MemoryTelemetry.budgetBytes の 1/2 まで。外れたタイルは BitmapPool に戻して
+ *    次のタイルのデコード先に使い回す。メモリが足りなくなったら表示外、さらに全タイルの順に手放す
+ */
+public class TiledImageView extends View {
+
+    private static final int TILE_SIZE = 512;
+    private static final float MAX_ZOOM = 8f;
+    private static final int MAX_TILE_CACHE_BYTES = 24 * 1024 * 1024;
+
+    // 全ビューのタイルの合計 (MemoryTelemetry 用)
+    private static final AtomicLong liveTileBytes = new AtomicLong();
+
+    static long liveTileBytes() {
+        return liveTileBytes.get();
+    }
+
+    private BitmapRegionDecoder decoder;
+    private Bitmap preview;
+    private int imageWidth, imageHeight;
+
+    // 表示位置: ビュー座標 = 画像座標 * scale + trans
+    private float scale = 1f;
+    private float minScale = 1f;
+    private float transX, transY;
+
+    private final BitmapPool pool;
+    private final LruCache<String, Bitmap> tileCache;
+    private final Set<String> pending = new HashSet<>();
+    private volatile Set<String> wanted = new HashSet<>();   // 現在表示に必要なタイル
+    private Set<String> visibleTiles = new HashSet<>();       // 前回描いた範囲のタイル (UI スレッドのみ)
+    private ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect srcRect = new Rect();
+    private final RectF dstRect = new RectF();
+
+    private final ScaleGestureDetector scaleDetector;
+    private final GestureDetector gestureDetector;
+
+    public TiledImageView(Context context) {
+        this(context, null);
+    }
+
+    public TiledImageView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        pool = BitmapPool.getInstance(context);
+        int cacheBytes = (int) Math.min(MAX_TILE_CACHE_BYTES, MemoryTelemetry.budgetBytes(context) / 2);
+        tileCache = new LruCache<String, Bitmap>(cacheBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount();
+            }
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                // もう描かれないので次のタイルのデコード先に回す (キャッシュの操作は全て UI スレッド)
+                liveTileBytes.addAndGet(-oldValue.getByteCount());
+                pool.put(oldValue);
+            }
+        };
+        scaleDetector = new ScaleGestureDetector(context, new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+            @Override
+            public boolean onScale(ScaleGestureDetector detector) {
+                zoomTo(scale * detector.getScaleFactor(), detector.getFocusX(), detector.getFocusY());
+                return true;
+            }
+        });
+        gestureDetector = new GestureDetector(context, new GestureDetector.SimpleOnGestureListener() {
+            @Override
+            public boolean onDown(MotionEvent e) {
+                return true;
+            }
+            @Override
+            public boolean onScroll(MotionEvent e1, MotionEvent e2, float dx, float dy) {
+                transX -= dx;
+                transY -= dy;
+                clampTranslation();
+                invalidate();
+                return true;
+            }
+            @Override
+            public boolean onDoubleTap(MotionEvent e) {
+                float target = scale > minScale * 1.5f ? minScale : minScale * 2f;
+                zoomTo(target, e.getX(), e.getY());
+                return true;
+            }
+        });
+    }
+
+    /**
+     * 表示する画像を設定
+     * @param file    元画像のファイル
+     * @param preview 先に表示する低解像度の画像 (null 可)
+     */
+    @SuppressWarnings("deprecation")
+    public void setImage(File file, Bitmap preview) {
+        releaseDecoder();
+        this.preview = preview;
+        try {
+            decoder = BitmapRegionDecoder.newInstance(file.getPath(), false);
+            imageWidth = decoder.getWidth();
+            imageHeight = decoder.getHeight();
+        } catch (IOException e) {
+            e.printStackTrace();
+            decoder = null;
+            imageWidth = preview != null ? preview.getWidth() : 0;
+            imageHeight = preview != null ? preview.getHeight() : 0;
+        }
+        resetZoom();
+        invalidate();
+    }
+
+    /** プレビューだけを差し替える (先読みした鮮明な画像が後から届いたときなど) */
+    public void setPreview(Bitmap preview) {
+        this.preview = preview;
+        invalidate();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        resetZoom();
+    }
+
+    private void resetZoom() {
+        if (imageWidth == 0 || imageHeight == 0 || getWidth() == 0 || getHeight() == 0) return;
+        minScale = Math.min((float) getWidth() / imageWidth, (float) getHeight() / imageHeight);
+        scale = minScale;
+        clampTranslation();
+    }
+
+    private void zoomTo(float newScale, float focusX, float focusY) {
+        newScale = Math.max(minScale, Math.min(newScale, Math.max(minScale, 1f) * MAX_ZOOM));
+        // フォーカス位置の画像座標が動かないように移動量を調整
+        float ix = (focusX - transX) / scale;
+        float iy = (focusY - transY) / scale;
+        scale = newScale;
+        transX = focusX - ix * scale;
+        transY = focusY - iy * scale;
+        clampTranslation();
+        invalidate();
+    }
+
+    private void clampTranslation() {
+        float w = imageWidth * scale;
+        float h = imageHeight * scale;
+        transX = w <= getWidth() ? (getWidth() - w) / 2f : Math.max(getWidth() - w, Math.min(transX, 0f));
+        transY = h <= getHeight() ? (getHeight() - h) / 2f : Math.max(getHeight() - h, Math.min(transY, 0f));
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        boolean handled = scaleDetector.onTouchEvent(event);
+        handled |= gestureDetector.onTouchEvent(event);
+        // ズーム中は親 (ScrollView など) にスクロールを奪われないようにする
+        if (getParent() != null) {
+            getParent().requestDisallowInterceptTouchEvent(scale > minScale);
+        }
+        return handled || super.onTouchEvent(event);
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (imageWidth == 0) return;
+
+        // 1) プレビューを画像全体の大きさに引き伸ばして描く
+        if (preview != null) {
+            dstRect.set(transX, transY, transX + imageWidth * scale, transY + imageHeight * scale);
+            canvas.drawBitmap(preview, null, dstRect, paint);
+        }
+        if (decoder == null) return;
+        if (preview != null && preview.getWidth() >= imageWidth * scale) {
+            // プレビューで足りている: 要求済みのタイルもデコードしない
+            wanted = new HashSet<>();
+            visibleTiles = new HashSet<>();
+            return;
+        }
+
+        // 2) 表示範囲のタイルを重ねる (未デコードのものは要求)
+        int sample = 1;
+        while (sample * 2 * scale <= 1f) {
+            sample *= 2;
+        }
+        int tileSpan = TILE_SIZE * sample;   // 1タイルが覆う画像上の幅
+        int left = Math.max(0, (int) (-transX / scale));
+        int top = Math.max(0, (int) (-transY / scale));
+        int right = Math.min(imageWidth, (int) Math.ceil((getWidth() - transX) / scale));
+        int bottom = Math.min(imageHeight, (int) Math.ceil((getHeight() - transY) / scale));
+
+        Set<String> nowWanted = new HashSet<>();
+        Set<String> nowVisible = new HashSet<>();
+        List<Rect> missing = new ArrayList<>();
+        for (int row = top / tileSpan; row * tileSpan < bottom; row++) {
+            for (int col = left / tileSpan; col * tileSpan < right; col++) {
+                srcRect.set(col * tileSpan, row * tileSpan,
+                        Math.min((col + 1) * tileSpan, imageWidth),
+                        Math.min((row + 1) * tileSpan, imageHeight));
+                String key = sample + ":" + col + ":" + row;
+                nowVisible.add(key);
+                Bitmap tile = tileCache.get(key);
+                if (tile != null) {
+                    dstRect.set(transX + srcRect.left * scale, transY + srcRect.top * scale,
+                            transX + srcRect.right * scale, transY + srcRect.bottom * scale);
+                    canvas.drawBitmap(tile, null, dstRect, paint);
+                } else {
+                    nowWanted.add(key);
+                    missing.add(new Rect(srcRect));
+                }
+            }
+        }
+        wanted = nowWanted;
+        visibleTiles = nowVisible;
+        for (Rect region : missing) {
+            requestTile(sample + ":" + region.left / tileSpan + ":" + region.top / tileSpan, region, sample);
+        }
+    }
+
+    private void requestTile(String key, Rect region, int sample) {
+        if (!pending.add(key)) return;
+        final BitmapRegionDecoder d = decoder;
+        executor.submit(() -> {
+            Bitmap tile = null;
+            // 要求後にスクロール/ズームして不要になったタイルはデコードしない
+            if (wanted.contains(key)) {
+                BitmapFactory.Options opts = new BitmapFactory.Options();
+                opts.inSampleSize = sample;
+                opts.inMutable = true;
+                // 端のタイル以外は大きさが同じなので使い回す
+                // (BitmapRegionDecoder は inBitmap の大きさを変えないので、ちょうど同じ大きさのものだけ)
+                if (region.width() == TILE_SIZE * sample && region.height() == TILE_SIZE * sample) {
+                    opts.inBitmap = pool.takeExact(TILE_SIZE, TILE_SIZE, Bitmap.Config.ARGB_8888);
+                }
+                try (NoteMetrics.Section ignored = NoteMetrics.begin(NoteMetrics.TILE_DECODE)) {
+                    tile = d.decodeRegion(region, opts);
+                } catch (IllegalArgumentException e) {
+                    // 使い回せなかった: 新しく確保してやり直す
+                    pool.put(opts.inBitmap);
+                    opts.inBitmap = null;
+                    try {
+                        tile = d.decodeRegion(region, opts);
+                    } catch (IllegalStateException ignored) {
+                    }
+                } catch (IllegalStateException e) {
+                    // 画面を閉じてデコーダが解放済み
+                    pool.put(opts.inBitmap);
+                }
+            }
+            final Bitmap result = tile;
+            mainHandler.post(() -> {
+                pending.remove(key);
+                if (result != null && d == decoder) {
+                    liveTileBytes.addAndGet(result.getByteCount());
+                    tileCache.put(key, result);
+                    invalidate();
+                } else {
+                    pool.put(result);
+                }
+            });
+        });
+    }
+
+    // メモリが足りなくなったら、表示外のタイル -> 全タイル (プレビューだけ残す) の順に手放す
+    private final ComponentCallbacks2 trimCallback = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(int level) {
+            int tier = BitmapPool.trimTier(level);
+            if (tier >= BitmapPool.TIER_CRITICAL) {
+                post(() -> tileCache.evictAll());
+            } else if (tier >= BitmapPool.TIER_LOW) {
+                post(() -> {
+                    for (String key : tileCache.snapshot().keySet()) {
+                        if (!visibleTiles.contains(key)) tileCache.remove(key);
+                    }
+                });
+            }
+        }
+        @Override
+        public void onLowMemory() {
+            onTrimMemory(TRIM_MEMORY_COMPLETE);
+        }
+        @Override
+        public void onConfigurationChanged(Configuration newConfig) {}
+    };
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        getContext().getApplicationContext().registerComponentCallbacks(trimCallback);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        getContext().getApplicationContext().unregisterComponentCallbacks(trimCallback);
+        releaseDecoder();
+        executor.shutdownNow();
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    private void releaseDecoder() {
+        if (decoder != null) {
+            decoder.recycle();
+            decoder = null;
+        }
+        tileCache.evictAll();
+        pending.clear();
+        wanted = new HashSet<>();
+    }
+}
@@ -0,0 +1,65 @@
+package es.exsample;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * ベンチマーク用の合成ノート (NoteSeeder) を追加する (perf ビルドのみ)
+ *  am broadcast -n es.exsample/.NoteSeedReceiver --es subject LA --ei count 300 --ei imageSize 1080
+ *  - サムネイルの作成と画像の再エンコード (ImageReencodeJob) もここで済ませ、
+ *    計測中にバックグラウンドの処理が走らないようにする
+ *  - SQLite への保存が終わってから結果を返す (am broadcast はそれまで待つ)。結果コードは追加した件数
+ */
+public class NoteSeedReceiver extends BroadcastReceiver {
+
+    private static final String TAG = "NoteSeedReceiver";
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        Context app = context.getApplicationContext();
+        String subject = intent.getStringExtra("subject");
+        int count = intent.getIntExtra("count", 300);
+        int imageSize = intent.getIntExtra("imageSize", 1080);
+        PendingResult result = goAsync();
+        new Thread(() -> {
+            try {
+                int added = NoteRepository.SUBJECT_CAL.equals(subject)
+                        ? seed(app, NoteStore.get(app).calculus(), CalculusActivity.CalItem::new,
+                                app.getResources().getStringArray(R.array.calculus_menu), count, imageSize)
+                        : seed(app, NoteStore.get(app).linearAlgebra(), LinearAlgebraActivity.LAItem::new,
+                                app.getResources().getStringArray(R.array.linear_algebra_menu), count, imageSize);
+                result.setResultCode(added);
+            } catch (IOException | InterruptedException e) {
+                Log.e(TAG, "seed failed", e);
+                result.setResultCode(-1);
+            } finally {
+                result.finish();
+            }
+        }, TAG).start();
+    }
+
+    private static <T extends NoteItem> int seed(Context app, NoteStore.Subject<T> notes, NoteItem.Factory<T> factory,
+                                                 String[] titles, int count, int imageSize)
+            throws IOException, InterruptedException {
+        NoteStore store = NoteStore.get(app);
+        NoteImageStore images = store.getImageStore();
+        List<T> items = NoteSeeder.generate(count, imageSize, titles, images::put, factory);
+        notes.addAll(items);
+        store.flush();
+        // 再エンコードでキーが変わるので、サムネイルはその後で
+        new ImageReencodeJob(app).run();
+        store.flush();
+        for (String key : store.loadAllImageKeys()) {
+            if (!images.hasThumbnail(key)) {
+                images.decodeThumbnail(key);
+            }
+        }
+        Log.i(TAG, items.size() + " notes seeded");
+        return items.size();
+    }
+}
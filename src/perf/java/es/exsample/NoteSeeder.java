@@ -0,0 +1,189 @@
+package es.exsample;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * ベンチマーク用の合成ノートを作る (Android に依存しない。perf ビルドと gradle の seedNotes タスクだけで使う)
+ *  - 画像は seed ごとに模様の違う PNG (一覧のサムネイル・拡大表示でそのままデコードできる)
+ *  - 同じ引数なら毎回同じデータになる
+ *  - アプリ内からは perf ビルドの NoteSeedReceiver が NoteStore 経由で追加する
+ *  - JVM からは main / writeFilesDir で filesDir と同じ構成 (note_images/ と note_journal) を書き出す。
+ *    アプリの filesDir に置くと、次回起動時にジャーナルから SQLite に反映される
+ */
+public final class NoteSeeder {
+
+    /** 画像の保存先 (NoteImageStore::put など)。保存したキーを返す */
+    public interface ImageWriter {
+        String put(byte[] encoded) throws IOException;
+    }
+
+    // R.array.linear_algebra_menu / R.array.calculus_menu と同じ (JVM からは resources を読めないため)
+    static final String[] LINEAR_ALGEBRA_TITLES = {
+            "ベクトル", "行列", "行列式", "連立１次方程式", "線形空間", "線形写像", "行列の対角比", "ジョルダン標準形"};
+    static final String[] CALCULUS_TITLES = {
+            "数列と関数の極限", "微分法とその応用", "積分法とその応用", "2変数関数の微分", "2変数関数の重積分"};
+
+    // NoteRepository.SUBJECT_* と同じ (NoteRepository は Android に依存するため)
+    static final String SUBJECT_LA = "LA";
+    static final String SUBJECT_CAL = "CAL";
+
+    private static final String[] WORDS = {"固有値", "基底", "次元", "内積", "極限", "導関数", "収束", "置換積分"};
+
+    private NoteSeeder() {
+    }
+
+    /**
+     * count 件のノート (id は未設定)。タイトルは titles を順番に、画像の長辺は imageSize (縦横比 4:3)
+     */
+    public static <T extends NoteItem> List<T> generate(int count, int imageSize, String[] titles,
+                                                        ImageWriter images, NoteItem.Factory<T> factory)
+            throws IOException {
+        List<T> notes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String key = images.put(png(imageSize, imageSize * 3 / 4, i));
+            notes.add(factory.create(key, titles[i % titles.length], text(i)));
+        }
+        return notes;
+    }
+
+    public static String[] titlesOf(String subject) {
+        return SUBJECT_CAL.equals(subject) ? CALCULUS_TITLES : LINEAR_ALGEBRA_TITLES;
+    }
+
+    /**
+     * filesDir と同じ構成で書き出す (id は firstId から順に振る)
+     *  - 既にあるジャーナルには追記する
+     */
+    public static void writeFilesDir(File filesDir, String subject, int count, int imageSize, long firstId)
+            throws IOException {
+        // NoteImageStore と同じ置き場所・ファイル名 (内容の SHA-256)
+        File imageDir = new File(filesDir, "note_images");
+        if (!imageDir.isDirectory() && !imageDir.mkdirs()) {
+            throw new IOException("cannot create " + imageDir);
+        }
+        List<NoteItem> notes = generate(count, imageSize, titlesOf(subject), encoded -> {
+            String key = sha256(encoded);
+            File file = new File(imageDir, key);
+            if (!file.exists()) {
+                try (FileOutputStream out = new FileOutputStream(file)) {
+                    out.write(encoded);
+                }
+            }
+            return key;
+        }, NoteItem::new);
+
+        List<NoteJournal.Record> records = new ArrayList<>(notes.size());
+        long id = firstId;
+        for (NoteItem note : notes) {
+            note.id = id++;
+            records.add(NoteJournal.Record.insert(subject, note));
+        }
+        new NoteJournal(new File(filesDir, "note_journal")).write(records);
+    }
+
+    /**
+     * java es.exsample.NoteSeeder 出力先 [科目 LA|CAL] [件数] [画像の長辺] [最初のID]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: NoteSeeder <filesDir> [LA|CAL] [count] [imageSize] [firstId]");
+            System.exit(2);
+        }
+        File filesDir = new File(args[0]);
+        String subject = args.length > 1 ? args[1] : SUBJECT_LA;
+        int count = args.length > 2 ? Integer.parseInt(args[2]) : 300;
+        int imageSize = args.length > 3 ? Integer.parseInt(args[3]) : 1080;
+        long firstId = args.length > 4 ? Long.parseLong(args[4]) : 1;
+        writeFilesDir(filesDir, subject, count, imageSize, firstId);
+        System.out.println(count + " notes (" + subject + ") -> " + filesDir.getAbsolutePath());
+    }
+
+    // 長さの違う本文 (全文検索に引っかかる語を含む)
+    static String text(int i) {
+        StringBuilder sb = new StringBuilder();
+        int sentences = 1 + i % 6;
+        for (int s = 0; s < sentences; s++) {
+            sb.append("ノート").append(i + 1).append(": ")
+                    .append(WORDS[(i * 7 + s) % WORDS.length]).append("の例題 ").append(s + 1).append("。");
+        }
+        return sb.toString();
+    }
+
+    /** 対角のグラデーションに seed ごとの色と中心をずらした同心円を重ねた RGB の PNG */
+    static byte[] png(int width, int height, int seed) {
+        Random r = new Random(seed);
+        int r0 = r.nextInt(256);
+        int g0 = r.nextInt(256);
+        int b0 = r.nextInt(256);
+        int cx = r.nextInt(width);
+        int cy = r.nextInt(height);
+        try {
+            ByteArrayOutputStream idat = new ByteArrayOutputStream();
+            try (DeflaterOutputStream z = new DeflaterOutputStream(idat)) {
+                byte[] row = new byte[1 + width * 3];   // 先頭はフィルタの種類 (0: なし)
+                for (int y = 0; y < height; y++) {
+                    for (int x = 0; x < width; x++) {
+                        int dx = x - cx;
+                        int dy = y - cy;
+                        int ring = (int) Math.sqrt(dx * dx + dy * dy) / 24 % 2 == 0 ? 48 : 0;
+                        row[1 + x * 3] = (byte) (r0 + x * 255 / width);
+                        row[2 + x * 3] = (byte) (g0 + y * 255 / height + ring);
+                        row[3 + x * 3] = (byte) (b0 + ring);
+                    }
+                    z.write(row);
+                }
+            }
+
+            ByteArrayOutputStream png = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(png);
+            out.write(new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'});
+            ByteArrayOutputStream ihdr = new ByteArrayOutputStream();
+            DataOutputStream h = new DataOutputStream(ihdr);
+            h.writeInt(width);
+            h.writeInt(height);
+            h.write(new byte[]{8, 2, 0, 0, 0});   // 8bit, RGB, deflate, フィルタ方式0, インターレースなし
+            chunk(out, "IHDR", ihdr.toByteArray());
+            chunk(out, "IDAT", idat.toByteArray());
+            chunk(out, "IEND", new byte[0]);
+            return png.toByteArray();
+        } catch (IOException e) {
+            // メモリ上の書き込みなので起きない
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void chunk(DataOutputStream out, String type, byte[] data) throws IOException {
+        byte[] name = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(name, 0, name.length);
+        crc.update(data, 0, data.length);
+        out.writeInt(data.length);
+        out.write(name);
+        out.write(data);
+        out.writeInt((int) crc.getValue());
+    }
+
+    private static String sha256(byte[] bytes) {
+        try {
+            StringBuilder sb = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(bytes)) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
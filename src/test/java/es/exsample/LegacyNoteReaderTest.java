@@ -0,0 +1,279 @@
+package es.exsample;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * 旧形式 (@@@ / ### 区切り) の流し読みのテスト
+ */
+public class LegacyNoteReaderTest {
+
+    // android.util.Base64.DEFAULT と同じく 76 文字ごとに改行
+    private static final Base64.Encoder ENCODER = Base64.getMimeEncoder(76, new byte[]{'\n'});
+
+    /** 書き込まれた画像のバイト列をそのまま覚えておく ImageSink */
+    private static class MemorySink implements LegacyNoteReader.ImageSink {
+        final List<byte[]> committed = new ArrayList<>();
+        private ByteArrayOutputStream out;
+
+        @Override
+        public OutputStream begin() {
+            out = new ByteArrayOutputStream();
+            return out;
+        }
+
+        @Override
+        public String commit() {
+            committed.add(out.toByteArray());
+            return "key" + (committed.size() - 1);
+        }
+
+        @Override
+        public void abort() {
+            out = null;
+        }
+    }
+
+    private static byte[] image(int seed, int size) {
+        byte[] b = new byte[size];
+        new Random(seed).nextBytes(b);
+        return b;
+    }
+
+    private static List<NoteItem> readAll(Reader in, LegacyNoteReader.ImageSink sink) throws IOException {
+        List<NoteItem> items = new ArrayList<>();
+        try (LegacyNoteReader reader = new LegacyNoteReader(in, sink)) {
+            NoteItem item;
+            while ((item = reader.next(NoteItem::new)) != null) {
+                items.add(item);
+            }
+        }
+        return items;
+    }
+
+    @Test
+    public void readsRecordsAndDecodesImages() throws IOException {
+        byte[] a = image(1, 1000);
+        byte[] b = image(2, 5000);
+        String stored = ENCODER.encodeToString(a) + "###行列###固有値の定義@@@"
+                + ENCODER.encodeToString(b) + "###微分###連鎖律@@@";
+        MemorySink sink = new MemorySink();
+
+        List<NoteItem> items = readAll(new StringReader(stored), sink);
+
+        assertEquals(2, items.size());
+        assertEquals("key0", items.get(0).imageKey);
+        assertEquals("行列", items.get(0).spinnerText);
+        assertEquals("固有値の定義", items.get(0).editText);
+        assertEquals("連鎖律", items.get(1).editText);
+        assertArrayEquals(a, sink.committed.get(0));
+        assertArrayEquals(b, sink.committed.get(1));
+    }
+
+    @Test
+    public void keepsDelimitersInsideText() throws IOException {
+        String img = ENCODER.encodeToString(image(3, 300));
+        String[] texts = {
+                "a###b",
+                "メール user@@@example",
+                "末尾が@@@",
+                "@@@ 空白の後",
+                "@@@hello###world",
+                "###@@@###",
+                "see @@@ this note explains the whole eigenvalue decomposition theorem in detail"
+                        + " and also covers the spectral theorem for symmetric matrices",
+        };
+        StringBuilder sb = new StringBuilder();
+        for (String t : texts) {
+            sb.append(img).append("###タイトル###").append(t).append("@@@");
+        }
+
+        List<NoteItem> items = readAll(new StringReader(sb.toString()), new MemorySink());
+
+        assertEquals(texts.length, items.size());
+        for (int i = 0; i < texts.length; i++) {
+            assertEquals(texts[i], items.get(i).editText);
+            assertEquals("タイトル", items.get(i).spinnerText);
+        }
+    }
+
+    @Test
+    public void skipsIncompleteRecordsAndKeepsNotesWithBrokenImages() throws IOException {
+        String img = ENCODER.encodeToString(image(4, 300));
+        String stored = "\n@@@"
+                + img + "###タイトルだけ@@@"
+                + "!!not base64!!###行列###画像が壊れている@@@"
+                + img + "###行列###正常@@@\n";
+        MemorySink sink = new MemorySink();
+
+        List<NoteItem> items = readAll(new StringReader(stored), sink);
+
+        assertEquals(2, items.size());
+        assertNull(items.get(0).imageKey);
+        assertEquals("画像が壊れている", items.get(0).editText);
+        assertEquals("正常", items.get(1).editText);
+        assertEquals(1, sink.committed.size());
+    }
+
+    @Test
+    public void readsValueFromPrefsXml() throws IOException {
+        byte[] a = image(5, 2000);
+        File xml = File.createTempFile("prefs", ".xml");
+        try (Writer w = new OutputStreamWriter(new FileOutputStream(xml), StandardCharsets.UTF_8)) {
+            w.write("<?xml version='1.0' encoding='utf-8' standalone='yes' ?>\n<map>\n");
+            w.write("    <string name=\"OTHER\">x</string>\n");
+            w.write("    <string name=\"LA_ITEM_LIST\">");
+            w.write(ENCODER.encodeToString(a).replace("\n", "&#10;"));
+            w.write("###行列###a &lt; b &amp;&amp; c &gt; d &quot;引用&quot;@@@</string>\n</map>\n");
+        }
+        try {
+            assertNull(LegacyNoteReader.openPrefsString(xml, "CAL_ITEM_LIST"));
+            MemorySink sink = new MemorySink();
+            List<NoteItem> items = readAll(LegacyNoteReader.openPrefsString(xml, "LA_ITEM_LIST"), sink);
+
+            assertEquals(1, items.size());
+            assertEquals("a < b && c > d \"引用\"", items.get(0).editText);
+            assertArrayEquals(a, sink.committed.get(0));
+        } finally {
+            xml.delete();
+        }
+    }
+
+    /**
+     * 約200MB の旧データを、全体も画像1枚分もメモリに載せずに読めること
+     *  - 入力は生成しながら流し込み、画像は SHA-256 だけを計算して捨てる
+     */
+    @Test
+    public void streamsSyntheticTwoHundredMegabyteStore() throws Exception {
+        final int records = 100;
+        final int imageBytes = 1_500_000;   // Base64 で約 2M 文字 x 100件
+        HashingSink sink = new HashingSink();
+        SyntheticStore store = new SyntheticStore(records, imageBytes);
+
+        int count = 0;
+        try (LegacyNoteReader reader = new LegacyNoteReader(store, sink)) {
+            NoteItem item;
+            while ((item = reader.next(NoteItem::new)) != null) {
+                MessageDigest expected = MessageDigest.getInstance("SHA-256");
+                expected.update(image(count, imageBytes));
+                assertEquals(hex(expected.digest()), item.imageKey);
+                assertEquals("本文 " + count + " ### と @@@ を含む", item.editText);
+                count++;
+            }
+        }
+        assertEquals(records, count);
+        assertTrue(store.charsProduced > 200_000_000L);
+    }
+
+    private static class HashingSink implements LegacyNoteReader.ImageSink {
+        private DigestOutputStream out;
+
+        @Override
+        public OutputStream begin() throws IOException {
+            try {
+                out = new DigestOutputStream(new OutputStream() {
+                    @Override
+                    public void write(int b) {
+                    }
+                    @Override
+                    public void write(byte[] b, int off, int len) {
+                    }
+                }, MessageDigest.getInstance("SHA-256"));
+            } catch (java.security.NoSuchAlgorithmException e) {
+                throw new IOException(e);
+            }
+            return out;
+        }
+
+        @Override
+        public String commit() {
+            return hex(out.getMessageDigest().digest());
+        }
+
+        @Override
+        public void abort() {
+        }
+    }
+
+    private static String hex(byte[] digest) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    /** 旧形式の文字列を少しずつ生成して返す Reader (生成側も1件分の画像しか持たない) */
+    private static class SyntheticStore extends Reader {
+        private static final int CHUNK_BYTES = 57 * 1024;   // Base64 の1行 (57バイト) の倍数
+
+        private final int records;
+        private final int imageBytes;
+        private int record = 0;
+        private byte[] imageBuffer;
+        private int imagePos;
+        private String pending = "";
+        private int pendingPos = 0;
+        long charsProduced = 0;
+
+        SyntheticStore(int records, int imageBytes) {
+            this.records = records;
+            this.imageBytes = imageBytes;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+            if (pendingPos == pending.length()) {
+                String next = produce();
+                if (next == null) return -1;
+                pending = next;
+                pendingPos = 0;
+            }
+            int n = Math.min(len, pending.length() - pendingPos);
+            pending.getChars(pendingPos, pendingPos + n, cbuf, off);
+            pendingPos += n;
+            charsProduced += n;
+            return n;
+        }
+
+        // 次の断片 (画像の Base64 の一部、またはタイトルと本文)。終わりなら null
+        private String produce() {
+            if (imageBuffer == null) {
+                if (record == records) return null;
+                imageBuffer = image(record, imageBytes);
+                imagePos = 0;
+            }
+            if (imagePos < imageBuffer.length) {
+                int n = Math.min(CHUNK_BYTES, imageBuffer.length - imagePos);
+                byte[] part = new byte[n];
+                System.arraycopy(imageBuffer, imagePos, part, 0, n);
+                imagePos += n;
+                return ENCODER.encodeToString(part) + "\n";
+            }
+            imageBuffer = null;
+            return "###行列###本文 " + record++ + " ### と @@@ を含む@@@";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package es.exsample;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * ジャーナル (NoteJournal) の書き込みと、途中で切れた末尾の扱いのテスト
+ */
+public class NoteJournalTest {
+
+    private static NoteItem note(long id, String title, String text) {
+        NoteItem item = new NoteItem("key" + id, title, text);
+        item.id = id;
+        return item;
+    }
+
+    private static void assertRecord(NoteJournal.Record r, byte type, String subject, long id, String text) {
+        assertEquals(type, r.type);
+        assertEquals(subject, r.subject);
+        assertEquals(id, r.id);
+        assertEquals(text, r.text);
+    }
+
+    @Test
+    public void readsBackWrittenRecords() throws IOException {
+        File file = File.createTempFile("journal", ".bin");
+        try {
+            NoteJournal journal = new NoteJournal(file);
+            journal.append(NoteJournal.Record.insert("LA", note(1, "行列", "固有値の定義")));
+            journal.append(NoteJournal.Record.update("CAL", note(2, "微分", null)));
+            journal.write(journal.drain());
+            journal.write(Arrays.asList(
+                    NoteJournal.Record.delete("LA", 1),
+                    NoteJournal.Record.replaceImage("old", "new")));
+
+            List<NoteJournal.Record> records = new NoteJournal(file).readAll();
+
+            assertEquals(4, records.size());
+            assertRecord(records.get(0), NoteJournal.INSERT, "LA", 1, "固有値の定義");
+            assertEquals("key1", records.get(0).imageKey);
+            assertEquals("行列", records.get(0).category);
+            assertRecord(records.get(1), NoteJournal.UPDATE, "CAL", 2, null);
+            assertRecord(records.get(2), NoteJournal.DELETE, "LA", 1, null);
+            assertRecord(records.get(3), NoteJournal.REPLACE_IMAGE, null, 0, null);
+            assertEquals("old", records.get(3).imageKey);
+            assertEquals("new", records.get(3).newImageKey);
+            assertTrue(journal.drain().isEmpty());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void dropsTornTailAndAppendsAfterIt() throws IOException {
+        File file = File.createTempFile("journal", ".bin");
+        try {
+            NoteJournal journal = new NoteJournal(file);
+            journal.write(Arrays.asList(
+                    NoteJournal.Record.insert("LA", note(1, "行列", "一つ目")),
+                    NoteJournal.Record.insert("LA", note(2, "行列", "二つ目"))));
+            long intact = file.length();
+            journal.write(Collections.singletonList(NoteJournal.Record.insert("LA", note(3, "行列", "三つ目"))));
+            // 最後のレコードの書き込み途中で落ちた
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(file.length() - 5);
+            }
+
+            NoteJournal recovered = new NoteJournal(file);
+            List<NoteJournal.Record> records = recovered.readAll();
+
+            assertEquals(2, records.size());
+            assertEquals("二つ目", records.get(1).text);
+            // 切れた末尾は切り詰められ、次の追記はその後ろに続く
+            assertEquals(intact, file.length());
+            recovered.write(Collections.singletonList(NoteJournal.Record.delete("LA", 1)));
+            records = new NoteJournal(file).readAll();
+            assertEquals(3, records.size());
+            assertRecord(records.get(2), NoteJournal.DELETE, "LA", 1, null);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void dropsRecordWithBadChecksum() throws IOException {
+        File file = File.createTempFile("journal", ".bin");
+        try {
+            NoteJournal journal = new NoteJournal(file);
+            journal.write(Collections.singletonList(NoteJournal.Record.insert("LA", note(1, "行列", "正常"))));
+            long intact = file.length();
+            journal.write(Collections.singletonList(NoteJournal.Record.insert("LA", note(2, "行列", "壊れる"))));
+            // 2件目の末尾の CRC を書き換える
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.seek(file.length() - 1);
+                int last = raf.read();
+                raf.seek(file.length() - 1);
+                raf.write(last ^ 0xFF);
+            }
+
+            List<NoteJournal.Record> records = new NoteJournal(file).readAll();
+
+            assertEquals(1, records.size());
+            assertEquals("正常", records.get(0).text);
+            assertEquals(intact, file.length());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void truncateEmptiesJournal() throws IOException {
+        File file = File.createTempFile("journal", ".bin");
+        try {
+            NoteJournal journal = new NoteJournal(file);
+            journal.write(Collections.singletonList(NoteJournal.Record.insert("LA", note(1, "行列", "消える"))));
+            assertTrue(journal.size() > 0);
+
+            journal.truncate();
+
+            assertEquals(0, journal.size());
+            assertTrue(new NoteJournal(file).readAll().isEmpty());
+            // 空にした後も追記できる
+            journal.write(Collections.singletonList(NoteJournal.Record.delete("CAL", 7)));
+            List<NoteJournal.Record> records = new NoteJournal(file).readAll();
+            assertEquals(1, records.size());
+            assertRecord(records.get(0), NoteJournal.DELETE, "CAL", 7, null);
+        } finally {
+            file.delete();
+        }
+    }
+}